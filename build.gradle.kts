@@ -226,6 +226,53 @@ tasks.register<Test>("e2eTest") {
     jvmArgs("-Dapi.version=1.40")
 }
 
+// ---------------------------------------------------------------------------
+// Benchmarks (src/jmh/java), e.g. gradle jmh -Pjmh.includes=Ipv4
+// The fixtures are generated from fixed seeds and nothing is fetched while they
+// run, so after the first build `gradle --offline jmh` gives comparable results.
+// ---------------------------------------------------------------------------
+val jmhVersion = "1.37"
+
+val jmh by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+configurations[jmh.implementationConfigurationName].extendsFrom(configurations.implementation.get())
+configurations[jmh.runtimeOnlyConfigurationName].extendsFrom(configurations.runtimeOnly.get())
+
+dependencies {
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:$jmhVersion")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:$jmhVersion")
+}
+
+tasks.register<JavaExec>("jmh") {
+    description = "Runs the JMH benchmarks"
+    group = "verification"
+
+    val results = layout.buildDirectory.file("reports/jmh/results.json")
+    outputs.file(results)
+    outputs.upToDateWhen { false }
+
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    // log4j2.xml writes startup.log to the working directory, keep it and the forks' output out of the tree
+    val runDir = layout.buildDirectory.dir("jmh")
+    workingDir = runDir.get().asFile
+    args(
+        findProperty("jmh.includes") as String? ?: ".*",
+        // Same heap for every forked run, and stop at the first benchmark that fails
+        "-jvmArgs", "-Xms1g -Xmx1g",
+        "-foe", "true",
+        "-rf", "json",
+        "-rff", results.get().asFile.path
+    )
+    doFirst {
+        results.get().asFile.parentFile.mkdirs()
+        runDir.get().asFile.mkdirs()
+    }
+}
+
 tasks.withType<JavaCompile> {
     options.compilerArgs.addAll(listOf("-Xlint:deprecation", "-Xlint:unchecked"))
     options.isFork = true // fork to guarantee that Lombok does not mess with the Gradle JVM
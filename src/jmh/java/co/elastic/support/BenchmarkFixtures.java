@@ -0,0 +1,128 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support;
+
+import java.util.Random;
+
+/**
+ * Synthetic diagnostic content for the benchmarks. Everything is generated from a
+ * fixed seed, so every run works on exactly the same input.
+ */
+public class BenchmarkFixtures {
+
+    public static final long SEED = 42;
+
+    public static final String CLUSTER_NAME = "billing-prod";
+
+    /**
+     * A nodes.json in the shape the nodes info API returns, trimmed to the fields the
+     * scrubber looks at plus enough settings to give it a realistic size.
+     */
+    public static String nodesJson(int nodes) {
+        Random random = new Random(SEED);
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"_nodes\" : { \"total\" : ").append(nodes).append(", \"successful\" : ").append(nodes)
+                .append(", \"failed\" : 0 },\n  \"cluster_name\" : \"").append(CLUSTER_NAME).append("\",\n  \"nodes\" : {\n");
+        for (int i = 0; i < nodes; i++) {
+            String ip = ipv4(random);
+            json.append("    \"").append(nodeId(random)).append("\" : {\n")
+                    .append("      \"name\" : \"instance-").append(String.format("%010d", i)).append("\",\n")
+                    .append("      \"transport_address\" : \"").append(ip).append(":9300\",\n")
+                    .append("      \"host\" : \"").append(ip).append("\",\n")
+                    .append("      \"ip\" : \"").append(ip).append("\",\n")
+                    .append("      \"version\" : \"8.13.4\",\n")
+                    .append("      \"roles\" : [ \"data_content\", \"data_hot\", \"ingest\", \"master\", \"remote_cluster_client\" ],\n")
+                    .append("      \"attributes\" : { \"availability_zone\" : \"us-east-1").append((char) ('a' + i % 3))
+                    .append("\", \"xpack.installed\" : \"true\" },\n")
+                    .append("      \"settings\" : { \"cluster\" : { \"name\" : \"").append(CLUSTER_NAME).append("\" },")
+                    .append(" \"network\" : { \"publish_host\" : \"").append(ip).append("\" },")
+                    .append(" \"path\" : { \"data\" : [ \"/app/data\" ], \"logs\" : \"/app/logs\" } },\n")
+                    .append("      \"os\" : { \"name\" : \"Linux\", \"arch\" : \"amd64\", \"available_processors\" : 8,")
+                    .append(" \"mac\" : \"").append(mac(random)).append("\" }\n")
+                    .append("    }").append(i < nodes - 1 ? ",\n" : "\n");
+        }
+        return json.append("  }\n}\n").toString();
+    }
+
+    /**
+     * Server log lines naming addresses, node names and the cluster, as seen in
+     * bundles from clusters with discovery or allocation trouble.
+     */
+    public static String serverLog(int lines) {
+        Random random = new Random(SEED);
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            log.append("[2024-05-01T10:").append(String.format("%02d:%02d,%03d", i / 60 % 60, i % 60, i % 1000))
+                    .append("][INFO ][o.e.c.s.ClusterApplierService] [instance-").append(String.format("%010d", i % 16))
+                    .append("] ");
+            switch (i % 4) {
+                case 0:
+                    log.append("added {{instance-").append(String.format("%010d", random.nextInt(16))).append("}{")
+                            .append(nodeId(random)).append("}{").append(ipv4(random)).append(":9300}}, term: 12, version: ")
+                            .append(i).append(", reason: Publication{term=12, version=").append(i).append("}\n");
+                    break;
+                case 1:
+                    log.append("publish_address {").append(ipv4(random)).append(":9300}, bound_addresses {[::]:9300}, ")
+                            .append("cluster [").append(CLUSTER_NAME).append("]\n");
+                    break;
+                case 2:
+                    log.append("interface eth0 mac ").append(mac(random)).append(" ipv6 fe80::")
+                            .append(Integer.toHexString(random.nextInt(0xffff))).append(":")
+                            .append(Integer.toHexString(random.nextInt(0xffff))).append("\n");
+                    break;
+                default:
+                    log.append("took [").append(random.nextInt(500)).append("ms] to notify listeners on successful ")
+                            .append("publication of cluster state (version: ").append(i).append(", uuid: ")
+                            .append(nodeId(random)).append(") for [shard-started]\n");
+            }
+        }
+        return log.toString();
+    }
+
+    /**
+     * Lines of a monitoring export: one .monitoring-es document per line.
+     */
+    public static String[] monitoringDocuments(int documents) {
+        Random random = new Random(SEED);
+        String[] lines = new String[documents];
+        for (int i = 0; i < documents; i++) {
+            lines[i] = "{\"cluster_uuid\":\"" + nodeId(random) + "\",\"timestamp\":\"2024-05-01T10:15:" + String.format("%02d", i % 60)
+                    + ".123Z\",\"interval_ms\":10000,\"type\":\"node_stats\",\"source_node\":{\"uuid\":\"" + nodeId(random)
+                    + "\",\"host\":\"" + ipv4(random) + "\",\"transport_address\":\"" + ipv4(random)
+                    + ":9300\",\"ip\":\"" + ipv4(random) + "\",\"name\":\"instance-" + String.format("%010d", i % 16)
+                    + "\"},\"cluster_name\":\"" + CLUSTER_NAME + "\",\"cluster_settings\":{\"cluster\":{\"metadata\":{\"display_name\":\""
+                    + CLUSTER_NAME + "\"}}},\"node_stats\":{\"node_id\":\"" + nodeId(random) + "\",\"node_master\":" + (i % 3 == 0)
+                    + ",\"indices\":{\"docs\":{\"count\":" + random.nextInt(Integer.MAX_VALUE) + "},\"store\":{\"size_in_bytes\":"
+                    + Math.abs(random.nextLong()) + "},\"indexing\":{\"index_total\":" + random.nextInt(Integer.MAX_VALUE)
+                    + ",\"index_time_in_millis\":" + random.nextInt(Integer.MAX_VALUE) + "},\"search\":{\"query_total\":"
+                    + random.nextInt(Integer.MAX_VALUE) + ",\"query_time_in_millis\":" + random.nextInt(Integer.MAX_VALUE)
+                    + "}},\"os\":{\"cpu\":{\"percent\":" + random.nextInt(100) + ",\"load_average\":{\"1m\":"
+                    + random.nextInt(800) / 100.0 + "}}},\"jvm\":{\"mem\":{\"heap_used_percent\":" + random.nextInt(100)
+                    + "},\"gc\":{\"collectors\":{\"young\":{\"collection_count\":" + random.nextInt(100000)
+                    + "},\"old\":{\"collection_count\":" + random.nextInt(100) + "}}}}}}";
+        }
+        return lines;
+    }
+
+    private static String nodeId(Random random) {
+        String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        StringBuilder id = new StringBuilder(22);
+        for (int i = 0; i < 22; i++) {
+            id.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        return id.toString();
+    }
+
+    private static String ipv4(Random random) {
+        return "10." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+    }
+
+    private static String mac(Random random) {
+        return String.format("%02x:%02x:%02x:%02x:%02x:%02x", random.nextInt(256), random.nextInt(256),
+                random.nextInt(256), random.nextInt(256), random.nextInt(256), random.nextInt(256));
+    }
+}
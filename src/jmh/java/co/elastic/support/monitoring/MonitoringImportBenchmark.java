@@ -0,0 +1,72 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.monitoring;
+
+import co.elastic.support.BenchmarkFixtures;
+import co.elastic.support.Constants;
+import co.elastic.support.diagnostics.DiagnosticException;
+import co.elastic.support.util.JsonYamlUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-line work of a monitoring import: every exported document is parsed,
+ * has its cluster name replaced and is written out again for the bulk request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MonitoringImportBenchmark {
+
+    @Param({"false", "true"})
+    public boolean renameCluster;
+
+    private MonitoringImportProcessor processor;
+    private String[] documents;
+
+    @Setup
+    public void setUp() throws DiagnosticException {
+        Map<String, Object> configMap = JsonYamlUtils.readYamlFromClasspath(Constants.DIAG_CONFIG, true);
+        MonitoringImportConfig config = new MonitoringImportConfig(configMap);
+        // No templates to check, so the processor never goes to the client
+        config.templateList = List.of();
+        MonitoringImportInputs inputs = new MonitoringImportInputs();
+        if (renameCluster) {
+            inputs.clusterName = "imported";
+        }
+        processor = new MonitoringImportProcessor(config, inputs, null);
+        documents = BenchmarkFixtures.monitoringDocuments(config.bulkSize);
+    }
+
+    /**
+     * One bulk request's worth of documents.
+     */
+    @Benchmark
+    public void batch(Blackhole blackhole) throws IOException {
+        for (String document : documents) {
+            blackhole.consume(processor.sourceLine(document));
+        }
+    }
+}
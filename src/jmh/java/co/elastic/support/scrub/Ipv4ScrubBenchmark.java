@@ -0,0 +1,84 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.scrub;
+
+import co.elastic.support.Constants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IPv4 scrubbing of log and cat output through the IPv4 regex, as the combined
+ * matcher did before, against the {@link Ipv4Scanner}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Ipv4ScrubBenchmark {
+
+    private String content;
+    private ScrubMatcher regex;
+    private ScrubMatcher scanner;
+
+    @Setup
+    public void setUp() {
+        int[] octets = ScrubProcessor.randomIpv4Octets();
+        regex = new ScrubMatcher().add(Constants.IPv4Regex, hit -> split(octets, hit));
+        scanner = new ScrubMatcher().addIpv4(new Ipv4Scanner(octets));
+
+        // Roughly what cat_nodes and the server logs look like, with an address on most lines
+        Random random = new Random(7);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            String ip = "10." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+            if (i % 2 == 0) {
+                builder.append(ip).append("  42  97  12  3.21  2.98  2.75 cdfhilmrstw - instance-00000").append(i)
+                        .append('\n');
+            } else {
+                builder.append("[2024-05-01T10:15:30,123][INFO ][o.e.t.TransportService] [instance-00000").append(i)
+                        .append("] publish_address {").append(ip).append(":9300}, bound_addresses {[::]:9300}\n");
+            }
+        }
+        content = builder.toString();
+    }
+
+    @Benchmark
+    public String regex() {
+        return regex.replace(content);
+    }
+
+    @Benchmark
+    public String scanner() {
+        return scanner.replace(content);
+    }
+
+    // What the IPv4 generator did for each hit before the scanner
+    private static String split(int[] octets, String input) {
+        StringBuilder newIp = new StringBuilder();
+        String[] ipSegments = input.split("\\.");
+        for (int i = 0; i < 4; i++) {
+            newIp.append(octets[Integer.parseInt(ipSegments[i])]);
+            if (i < 3) {
+                newIp.append(".");
+            }
+        }
+        return newIp.toString();
+    }
+}
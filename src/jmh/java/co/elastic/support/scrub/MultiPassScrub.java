@@ -0,0 +1,96 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.scrub;
+
+import co.elastic.support.Constants;
+import co.elastic.support.util.JsonYamlUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Scrubs the way it was done before {@link ScrubProcessor#processContent(String, String)}:
+ * a pass over the content for each kind of address, one for the cluster artifacts
+ * and one for each token, with every distinct hit then replaced as a literal.
+ * Only the baseline the combined pass is measured against in {@link ScrubProcessorBenchmark}.
+ */
+class MultiPassScrub {
+
+    private static final Pattern IPV4 = Pattern.compile(Constants.IPv4Regex);
+    private static final Pattern IPV6 = Pattern.compile(Constants.IPv6Regex);
+    private static final Pattern MAC = Pattern.compile(Constants.MacAddrRegex);
+
+    private final ScrubProcessor processor;
+    private final Ipv4Scanner ipv4Scanner = new Ipv4Scanner(ScrubProcessor.randomIpv4Octets());
+    private final LiteralReplacer clusterArtifacts;
+    private final Map<String, String> tokenCache = new HashMap<>();
+    private final Map<String, String> ipv4TokenCache = new HashMap<>();
+    private final Map<String, String> ipv6TokenCache = new HashMap<>();
+    private final Map<String, String> macTokenCache = new HashMap<>();
+
+    MultiPassScrub(ScrubProcessor processor, String nodes) {
+        this.processor = processor;
+        Map<String, String> clusterInfo = new HashMap<>();
+        JsonNode nodesInfo = JsonYamlUtils.createJsonNodeFromString(nodes);
+        String clusterName = nodesInfo.path("cluster_name").asText();
+        clusterInfo.put(clusterName, processor.generateToken(clusterName));
+        Iterator<Map.Entry<String, JsonNode>> iterNode = nodesInfo.path("nodes").fields();
+        while (iterNode.hasNext()) {
+            Map.Entry<String, JsonNode> n = iterNode.next();
+            String nodeName = n.getValue().path("name").asText();
+            clusterInfo.put(n.getKey(), processor.generateToken(n.getKey()));
+            clusterInfo.put(nodeName, processor.generateToken(nodeName));
+        }
+        clusterArtifacts = new LiteralReplacer(clusterInfo);
+    }
+
+    String autoscrub(String content) {
+        content = replaceHits(content, IPV4, ipv4TokenCache, ipv4Scanner::rewrite);
+        content = replaceHits(content, IPV6, ipv6TokenCache, this::ipv6Token);
+        content = replaceHits(content, MAC, macTokenCache, processor::generateToken);
+        return clusterArtifacts.replace(content);
+    }
+
+    String tokens(String content, List<ScrubTokenEntry> applicable) {
+        for (ScrubTokenEntry token : applicable) {
+            content = replaceHits(content, token.pattern, tokenCache, processor::generateToken);
+        }
+        return content;
+    }
+
+    private String ipv6Token(String input) {
+        String[] ipSegments = input.split(":");
+        StringBuilder newIp = new StringBuilder();
+        for (int i = 0; i < ipSegments.length; i++) {
+            newIp.append(processor.generateToken(ipSegments[i]));
+            if (i < ipSegments.length - 1) {
+                newIp.append(":");
+            }
+        }
+        return newIp.toString();
+    }
+
+    private static String replaceHits(String content, Pattern pattern, Map<String, String> cache, TokenGenerator generator) {
+        Matcher matcher = pattern.matcher(content);
+        Set<String> tokenHits = new HashSet<>();
+        while (matcher.find()) {
+            tokenHits.add(matcher.group());
+        }
+        Map<String, String> replacements = new HashMap<>();
+        for (String hit : tokenHits) {
+            replacements.put(hit, cache.computeIfAbsent(hit, generator::generate));
+        }
+        return new LiteralReplacer(replacements).replace(content);
+    }
+}
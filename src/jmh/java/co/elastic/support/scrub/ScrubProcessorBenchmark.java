@@ -0,0 +1,94 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.scrub;
+
+import co.elastic.support.BenchmarkFixtures;
+import co.elastic.support.diagnostics.DiagnosticException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The scrub passes over a nodes.json and a server log from a cluster of the given
+ * size: the separate autoscrub and token passes of {@link MultiPassScrub}, and the
+ * single combined pass that replaced them, plus the token generator every
+ * replacement goes through.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScrubProcessorBenchmark {
+
+    @Param({"50", "500"})
+    public int nodes;
+
+    private ScrubProcessor processor;
+    private MultiPassScrub multiPass;
+    private List<ScrubTokenEntry> tokens;
+    private String nodesJson;
+    private String serverLog;
+    private int next;
+
+    @Setup
+    public void setUp() throws DiagnosticException {
+        nodesJson = BenchmarkFixtures.nodesJson(nodes);
+        serverLog = BenchmarkFixtures.serverLog(nodes * 100);
+        processor = new ScrubProcessor(nodesJson);
+        multiPass = new MultiPassScrub(processor, nodesJson);
+        // The kind of tokens people add to scrub.yml: a literal and a couple of broader patterns
+        tokens = List.of(
+                new ScrubTokenEntry("billing-prod", List.of(), List.of()),
+                new ScrubTokenEntry("instance-\\d{10}", List.of(), List.of()),
+                new ScrubTokenEntry("us-east-1[a-c]", List.of(), List.of()));
+    }
+
+    @Benchmark
+    public String autoscrubNodes() {
+        return multiPass.autoscrub(nodesJson);
+    }
+
+    @Benchmark
+    public String autoscrubLog() {
+        return multiPass.autoscrub(serverLog);
+    }
+
+    @Benchmark
+    public String tokensNodes() {
+        return multiPass.tokens(nodesJson, tokens);
+    }
+
+    @Benchmark
+    public String tokensLog() {
+        return multiPass.tokens(serverLog, tokens);
+    }
+
+    @Benchmark
+    public String combinedLog() {
+        return processor.processContent(serverLog, tokens);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String generateToken() {
+        // A new value each time, since a real run mostly sees values it has not replaced before
+        return processor.generateToken("instance-" + next++);
+    }
+}
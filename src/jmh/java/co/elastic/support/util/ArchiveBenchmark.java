@@ -0,0 +1,94 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.util;
+
+import co.elastic.support.BenchmarkFixtures;
+import co.elastic.support.diagnostics.DiagnosticException;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Packaging a diagnostic directory with {@link ArchiveUtils#createZipArchive(String, String)}.
+ * The directory is laid out like a real bundle: a few hundred small API responses,
+ * a handful of large logs and some files that are already gzipped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArchiveBenchmark {
+
+    @Param({"200"})
+    public int apiFiles;
+
+    private Path root;
+    private String dir;
+
+    @Setup
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("archive-benchmark");
+        Path bundle = Files.createDirectories(root.resolve("api-diagnostics"));
+        String nodes = BenchmarkFixtures.nodesJson(20);
+        for (int i = 0; i < apiFiles; i++) {
+            Path api = bundle.resolve(i % 2 == 0 ? "commercial" : "cat").resolve("api_" + i + ".json");
+            Files.createDirectories(api.getParent());
+            Files.writeString(api, nodes.substring(0, nodes.length() * (i % 10 + 1) / 10));
+        }
+        Path logs = Files.createDirectories(bundle.resolve("logs"));
+        String log = BenchmarkFixtures.serverLog(50_000);
+        for (int i = 0; i < 4; i++) {
+            Files.writeString(logs.resolve("server-" + i + ".log"), log);
+        }
+        byte[] rotated = gzip(log);
+        for (int i = 0; i < 4; i++) {
+            Files.write(logs.resolve("server-" + i + ".log.gz"), rotated);
+        }
+        dir = bundle.toString();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(root.toFile());
+    }
+
+    @Benchmark
+    public File createZipArchive() throws DiagnosticException {
+        // Overwritten on every invocation, so only one archive is ever on disk
+        return ArchiveUtils.createZipArchive(dir, "benchmark");
+    }
+
+    private static byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream gz = new GZIPOutputStream(bytes)) {
+            gz.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+}
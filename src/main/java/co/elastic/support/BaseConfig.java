@@ -6,6 +6,7 @@
  */
 package co.elastic.support;
 
+import co.elastic.support.rest.RestClient;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.Map;
@@ -17,6 +18,11 @@ public class BaseConfig {
     public int socketTimeout;
     public int maxTotalConn;
     public int maxConnPerRoute;
+    public int concurrentCalls = 1;
+    public boolean compressResponses = false;
+    public int collectionBudget = 0;
+    public String httpBackend = RestClient.APACHE_BACKEND;
+    public boolean requestCompression = true;
     public Map<String, String> extraHeaders;
 
     public String diagReleaseHost = "api.github.com";
@@ -55,13 +61,38 @@ public class BaseConfig {
             }
         }
 
-        Map<String, Integer> restConfig = (Map<String, Integer>) configuration.get("rest-config");
+        Map<String, Object> restConfig = (Map<String, Object>) configuration.get("rest-config");
 
-        connectionTimeout = restConfig.get("connectTimeout") * 1000;
-        connectionRequestTimeout = restConfig.get("requestTimeout") * 1000;
-        socketTimeout = restConfig.get("socketTimeout") * 1000;
-        maxTotalConn = restConfig.get("maxTotalConn");
-        maxConnPerRoute = restConfig.get("maxConnPerRoute");
+        connectionTimeout = (Integer) restConfig.get("connectTimeout") * 1000;
+        connectionRequestTimeout = (Integer) restConfig.get("requestTimeout") * 1000;
+        socketTimeout = (Integer) restConfig.get("socketTimeout") * 1000;
+        maxTotalConn = (Integer) restConfig.get("maxTotalConn");
+        maxConnPerRoute = (Integer) restConfig.get("maxConnPerRoute");
+
+        // Optional - number of REST calls to run in parallel. Anything below 2 runs them one at a time.
+        if (restConfig.get("concurrentCalls") != null) {
+            concurrentCalls = (Integer) restConfig.get("concurrentCalls");
+        }
+
+        // Optional - gzip the output of REST entries flagged with compress: true as it is written.
+        if (restConfig.get("compressResponses") != null) {
+            compressResponses = (Boolean) restConfig.get("compressResponses");
+        }
+
+        // Optional - seconds allowed for all the REST calls of a run, 0 for no limit.
+        if (restConfig.get("collectionBudget") != null) {
+            collectionBudget = (Integer) restConfig.get("collectionBudget") * 1000;
+        }
+
+        // Optional - "jdk" to send requests through the JDK HTTP client instead of Apache HttpClient.
+        if (restConfig.get("httpBackend") != null) {
+            httpBackend = (String) restConfig.get("httpBackend");
+        }
+
+        // Optional - ask the cluster for gzip encoded responses to the REST calls, on unless turned off.
+        if (restConfig.get("requestCompression") != null) {
+            requestCompression = (Boolean) restConfig.get("requestCompression");
+        }
 
         extraHeaders = (Map<String, String>) configuration.get("extra-headers");
 
@@ -7,11 +7,14 @@
 package co.elastic.support.diagnostics;
 
 import co.elastic.support.BaseConfig;
+import co.elastic.support.rest.EndpointCircuitBreaker;
 
 import java.util.Map;
 
 public class DiagConfig extends BaseConfig {
     public int callRetries, pauseRetries, maxLogs, maxGcLogs;
+    public int maxPauseRetries = 30000;
+    public int breakerFailures = EndpointCircuitBreaker.DEFAULT_FAILURES;
 
     public DiagConfig(Map configuration) {
         super(configuration);
@@ -19,6 +22,12 @@ public class DiagConfig extends BaseConfig {
         // When we retry a failed call how many times, and how long to wait before reattempting.
         callRetries = (Integer) configuration.get("call-retries");
         pauseRetries = (Integer) configuration.get("pause-retries");
+        if (configuration.get("max-pause-retries") != null) {
+            maxPauseRetries = (Integer) configuration.get("max-pause-retries");
+        }
+        if (configuration.get("breaker-failures") != null) {
+            breakerFailures = (Integer) configuration.get("breaker-failures");
+        }
 
         // How many rolled over logs do we get?
         Map<String, Integer> logSettings = (Map<String, Integer>) configuration.get("log-settings");
@@ -106,6 +106,7 @@ public class DiagnosticInputs extends ElasticRestClientInputs {
     public final static String knownHostsDescription = "Known hosts file to search for target server. Default is ~/.ssh/known_hosts for Linux/Mac. Windows users should always set this explicitly.";
     public final static String sudoDescription = "Use sudo for remote commands? If not used, log retrieval and some system calls may fail.";
     public final static String remotePortDescription = "SSH port for the host being queried.";
+    public final static String directArchiveDescription = "Write REST output straight into the zip archive instead of a temp directory. Use when disk space is short.";
 
     // Input Fields
     @Parameter(names = {
@@ -135,6 +136,8 @@ public class DiagnosticInputs extends ElasticRestClientInputs {
     public boolean isSudo = false;
     @Parameter(names = { "--remotePort" }, description = remotePortDescription)
     public int remotePort = 22;
+    @Parameter(names = { "--directArchive" }, description = directArchiveDescription)
+    public boolean directArchive = false;
     // End Input Fields
 
     /**
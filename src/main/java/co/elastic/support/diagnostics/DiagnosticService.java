@@ -9,6 +9,7 @@ package co.elastic.support.diagnostics;
 import co.elastic.support.rest.ElasticRestClientService;
 import co.elastic.support.util.SystemProperties;
 import co.elastic.support.util.SystemUtils;
+import co.elastic.support.util.ZipOutputSink;
 import co.elastic.support.Constants;
 import co.elastic.support.diagnostics.chain.DiagnosticChainExec;
 import co.elastic.support.diagnostics.chain.DiagnosticContext;
@@ -30,6 +31,7 @@ public class DiagnosticService extends ElasticRestClientService {
         DiagConfig config = context.diagsConfig;
         DiagnosticInputs inputs = context.diagnosticInputs;
         File file;
+        ZipOutputSink archiveSink = null;
 
         try (
                 RestClient esRestClient = RestClient.getClient(
@@ -48,7 +50,8 @@ public class DiagnosticService extends ElasticRestClientService {
                         config.extraHeaders,
                         config.connectionTimeout,
                         config.connectionRequestTimeout,
-                        config.socketTimeout)) {
+                        config.socketTimeout,
+                        config.httpBackend)) {
 
             context.resourceCache.addRestClient(Constants.restInputHost, esRestClient);
 
@@ -68,6 +71,14 @@ public class DiagnosticService extends ElasticRestClientService {
                 throw new DiagnosticException("Could not create temporary directory", ioe);
             }
 
+            // REST output goes straight into the archive. Anything else that gets
+            // collected still lands in the temp directory and is added at the end.
+            if (inputs.directArchive) {
+                archiveSink = new ZipOutputSink(context.tempDir, SystemProperties.getFileDateString());
+                context.outputSink = archiveSink;
+                logger.info(Constants.CONSOLE, "Writing REST results directly to: {}", archiveSink.getArchive());
+            }
+
             // Modify the log file setup since we're going to package it with the
             // diagnostic.
             // The log4 configuration file sets up 2 loggers, one strictly for the console
@@ -101,7 +112,12 @@ public class DiagnosticService extends ElasticRestClientService {
             if (context.includeLogs) {
                 closeLogs();
             }
-            file = createArchive(context.tempDir);
+            if (archiveSink != null) {
+                logger.info(Constants.CONSOLE, "Archiving remaining diagnostic results.");
+                file = archiveSink.finish(context.tempDir);
+            } else {
+                file = createArchive(context.tempDir);
+            }
             SystemUtils.nukeDirectory(context.tempDir);
         }
 
@@ -9,11 +9,16 @@ package co.elastic.support.diagnostics.chain;
 import co.elastic.support.diagnostics.DiagConfig;
 import co.elastic.support.diagnostics.DiagnosticInputs;
 import co.elastic.support.diagnostics.ProcessProfile;
+import co.elastic.support.rest.CollectionBudget;
+import co.elastic.support.rest.EndpointCircuitBreaker;
+import co.elastic.support.rest.RestCallStats;
 import co.elastic.support.rest.RestEntry;
+import co.elastic.support.util.OutputSink;
 import co.elastic.support.util.ResourceCache;
 import org.semver4j.Semver;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DiagnosticContext {
 
@@ -35,8 +40,16 @@ public class DiagnosticContext {
 
    public Map<String, RestEntry> elasticRestCalls;
    public Map<String, RestEntry> fullElasticRestCalls;
+   /** per output file timings of the REST calls, written to the manifest */
+   public Map<String, RestCallStats> restCallStats = new ConcurrentHashMap<>();
+   /** stops retries against endpoints that keep failing with server errors or timeouts */
+   public EndpointCircuitBreaker circuitBreaker;
+   /** time allowed for the REST calls, started with the first one */
+   public CollectionBudget collectionBudget;
 
    public ResourceCache resourceCache;
+   /** when set, REST output is written here instead of tempDir */
+   public OutputSink outputSink;
 
    public DiagnosticContext(DiagConfig diagConfig, DiagnosticInputs diagnosticInputs, ResourceCache resourceCache,
          boolean includeLogs) {
@@ -44,5 +57,8 @@ public class DiagnosticContext {
       this.diagnosticInputs = diagnosticInputs;
       this.resourceCache = resourceCache;
       this.includeLogs = includeLogs;
+      this.circuitBreaker = new EndpointCircuitBreaker(
+            diagConfig != null ? diagConfig.breakerFailures : EndpointCircuitBreaker.DEFAULT_FAILURES);
+      this.collectionBudget = new CollectionBudget(diagConfig != null ? diagConfig.collectionBudget : 0);
    }
 }
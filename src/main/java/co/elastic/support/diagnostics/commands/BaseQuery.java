@@ -8,22 +8,44 @@ package co.elastic.support.diagnostics.commands;
 
 import co.elastic.support.Constants;
 import co.elastic.support.diagnostics.chain.Command;
+import co.elastic.support.diagnostics.chain.DiagnosticContext;
+import co.elastic.support.rest.RestCallStats;
 import co.elastic.support.rest.RestClient;
 import co.elastic.support.rest.RestEntry;
 import co.elastic.support.rest.RestResult;
 import co.elastic.support.util.SystemProperties;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.utils.HttpClientUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.File;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 
 public abstract class BaseQuery implements Command {
 
     private final Logger logger = LogManager.getLogger(BaseQuery.class);
 
+    // Outputs that later commands parse from tempDir, so they never go to an output sink.
+    static final Set<String> READ_BACK_FILES = Set.of("logstash_node.json", "kibana_stats.json", "kibana_actions.json");
+
     /*
      * This class has shared functionality for both the Elasticsearch and
      * Logstash based REST calls. It interates through set of endpoints from the
@@ -31,77 +53,296 @@ public abstract class BaseQuery implements Command {
      * directly to disk to a successful access. For some specialized configured
      * cases such as the node and shard calls, a failure will result in a reattempt
      * after the configured number of seconds.
+     *
+     * If concurrent calls are configured in the rest-config section of diags.yml,
+     * each pass through the list is spread over that many worker threads. Every
+     * entry still writes to its own file so the output layout is unchanged.
+     * Entries with the highest configured cost are started first so that a
+     * slow cluster_state or nodes_stats call does not start last and leave a
+     * long tail at the end of the run.
+     *
+     * When the context has an output sink, successful results are streamed into
+     * it rather than into tempDir.
+     *
+     * Files in tempDir only appear under their own name once the whole body has
+     * arrived. A body cut off part way is dropped, flagged as truncated in the
+     * manifest and retried like a timeout.
+     *
+     * Failed entries are retried after an exponential backoff starting at pause,
+     * with each entry waiting a random part of it so the retries do not all land
+     * on the cluster at once. A longer Retry-After sent with a 429 or 503 is
+     * honoured. Endpoints whose class keeps failing with server errors or
+     * timeouts are not retried at all, see EndpointCircuitBreaker.
+     *
+     * Entries can set their own socket timeout. When a collection budget is
+     * configured, low priority entries are skipped once it runs low, nothing is
+     * started or retried once it runs out, and no request waits longer than what
+     * is left of it. See CollectionBudget.
      */
-    public int runQueries(RestClient restClient, List<RestEntry> entries, String tempDir, int retries, int pause) {
+    public int runQueries(RestClient restClient, List<RestEntry> entries, DiagnosticContext context, int retries, int pause) {
+
+        context.collectionBudget.start();
+
+        // Stable sort, entries of equal cost keep their configured order.
+        List<RestEntry> scheduled = new ArrayList<>(entries);
+        scheduled.sort(Comparator.comparingInt(RestEntry::getCost).reversed());
 
         // Run through the query list, first pass. If anything that's retryable failed the
         // RestEntry will be in the returned retry list.
-        List<RestEntry> retryList = execQueryList(restClient, entries, tempDir);
+        List<RestEntry> retryList = execQueryList(restClient, scheduled, context);
         int totalRetries = retryList.size();
 
         for (int i = 0; i < retries; i++) {
-            // If no failed entries are in the list, get out
-            if (retryList.size() == 0) {
-                break;
-            }
+            Map<RestEntry, Long> delays = retryDelays(retryList, context, i, pause);
 
-            // Wait the configured pause time before trying again
-            try {
-                logger.warn(Constants.CONSOLE, "Some calls failed but were flagged as recoverable: retrying in {} seconds.", pause / 1000);
-                Thread.sleep(pause);
-            } catch (Exception e) {
-                logger.info(Constants.CONSOLE,  "Failed pause on error.", e);
+            // If no failed entries are left to retry, get out
+            if (delays.isEmpty()) {
+                break;
             }
 
-            retryList = execQueryList(restClient, retryList, tempDir);
+            logger.warn(Constants.CONSOLE, "{} calls failed but were flagged as recoverable: retrying within {} seconds.",
+                    delays.size(), Collections.max(delays.values()) / 1000);
+            retryList = execQueryList(restClient, new ArrayList<>(delays.keySet()), context, delays);
             totalRetries += retryList.size();
 
         }
         return totalRetries;
     }
 
-    List<RestEntry> execQueryList(RestClient restClient, List<RestEntry> calls, String tempdir){
+    /**
+     * Works out how long each failed entry waits before its next attempt, leaving out
+     * the ones that should not be retried.
+     *
+     * @return delay in milliseconds for each entry to retry, shortest first
+     */
+    Map<RestEntry, Long> retryDelays(List<RestEntry> failed, DiagnosticContext context, int retry, int pause) {
+        long maxPause = Math.max(pause, context.diagsConfig.maxPauseRetries);
+        long backoff = Math.min(maxPause, (long) pause << Math.min(retry, 20));
+
+        List<Map.Entry<RestEntry, Long>> delays = new ArrayList<>();
+        for (RestEntry entry : failed) {
+            if (context.circuitBreaker.isOpen(entry.getUrl())) {
+                logger.info(Constants.CONSOLE, "{}   {}  not retried: repeated server errors or timeouts from this endpoint.",
+                        entry.getName(), entry.getUrl());
+                continue;
+            }
+
+            long retryAfter = statsFor(entry, context).getRetryAfterMs();
+            if (retryAfter > maxPause) {
+                logger.info(Constants.CONSOLE, "{}   {}  not retried: the cluster asked for {} seconds before the next attempt.",
+                        entry.getName(), entry.getUrl(), retryAfter / 1000);
+                continue;
+            }
+
+            // At least half the backoff so a retry is never immediate, and a random part of the rest
+            long delay = Math.max(backoff / 2 + ThreadLocalRandom.current().nextLong(backoff - backoff / 2 + 1), retryAfter);
+            if (delay >= context.collectionBudget.remainingMillis()) {
+                logger.info(Constants.CONSOLE, "{}   {}  not retried: the collection budget runs out first.",
+                        entry.getName(), entry.getUrl());
+                continue;
+            }
+            delays.add(Map.entry(entry, delay));
+        }
+
+        Map<RestEntry, Long> ordered = new LinkedHashMap<>();
+        delays.stream()
+                .sorted(Map.Entry.comparingByValue())
+                .forEach(e -> ordered.put(e.getKey(), e.getValue()));
+        return ordered;
+    }
+
+    List<RestEntry> execQueryList(RestClient restClient, List<RestEntry> calls, DiagnosticContext context) {
+        return execQueryList(restClient, calls, context, Map.of());
+    }
+
+    /**
+     * @param delays how long to wait before starting each entry, measured from now. Entries without one start at once.
+     */
+    List<RestEntry> execQueryList(RestClient restClient, List<RestEntry> calls, DiagnosticContext context,
+                                  Map<RestEntry, Long> delays) {
 
         List<RestEntry> retryFailed = new ArrayList<>();
+        int concurrentCalls = context.diagsConfig.concurrentCalls;
+        long start = System.nanoTime();
 
-        for (RestEntry entry : calls) {
-            try {
-                String subdir = entry.getSubdir();
-                if(StringUtils.isEmpty(subdir)){
-                    subdir = tempdir;
+        if (concurrentCalls <= 1 || calls.size() <= 1) {
+            for (RestEntry entry : calls) {
+                if (waitFor(start, delays.get(entry)) && execQuery(restClient, entry, context)) {
+                    retryFailed.add(entry);
                 }
-                else {
-                    subdir = tempdir + SystemProperties.fileSeparator + subdir;
+            }
+            return retryFailed;
+        }
+
+        int threads = Math.min(concurrentCalls, calls.size());
+        logger.info(Constants.CONSOLE, "Running {} REST calls with {} concurrent requests.", calls.size(), threads);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Boolean>> tasks = new ArrayList<>();
+            for (RestEntry entry : calls) {
+                tasks.add(() -> waitFor(start, delays.get(entry)) && execQuery(restClient, entry, context));
+            }
+
+            // Futures come back in submission order so the retry list keeps the configured ordering.
+            List<Future<Boolean>> futures = executorService.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    if (futures.get(i).get()) {
+                        retryFailed.add(calls.get(i));
+                    }
+                } catch (Exception e) {
+                    logger.error("Error occurred executing query {}", calls.get(i).getName(), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.error(Constants.CONSOLE, "Interrupted while waiting for REST calls to complete.", e);
+            Thread.currentThread().interrupt();
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        return retryFailed;
+    }
+
+    // Sleeps until the entry's delay has passed since start. False if interrupted, so the entry is dropped.
+    private boolean waitFor(long start, Long delay) {
+        if (delay == null) {
+            return true;
+        }
+        long remaining = delay - (System.nanoTime() - start) / 1_000_000;
+        try {
+            if (remaining > 0) {
+                Thread.sleep(remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            logger.info(Constants.CONSOLE, "Interrupted while waiting to retry.", e);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private RestCallStats statsFor(RestEntry entry, DiagnosticContext context) {
+        String subdir = entry.getSubdir();
+        String relativeName = entry.getName() + entry.getExtension();
+        return context.restCallStats.computeIfAbsent(
+                StringUtils.isEmpty(subdir) ? relativeName : subdir + "/" + relativeName,
+                k -> new RestCallStats(entry));
+    }
+
+    /**
+     * Executes a single entry, writes the result to its target file and records
+     * the elapsed time and size of the output in the context.
+     *
+     * @return true if the call failed and should be attempted again.
+     */
+    boolean execQuery(RestClient restClient, RestEntry entry, DiagnosticContext context) {
+        String tempdir = context.tempDir;
+        String subdir = entry.getSubdir();
+        String relativeName = entry.getName() + entry.getExtension();
+        RestCallStats stats = statsFor(entry, context);
+
+        String skipReason = context.collectionBudget.skipReason(entry);
+        if (skipReason != null) {
+            logger.info(Constants.CONSOLE, "{}   {}  skipped: collection {}.", entry.getName(), entry.getUrl(),
+                    skipReason);
+            stats.recordSkipped(skipReason);
+            return false;
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            if(StringUtils.isEmpty(subdir)){
+                subdir = tempdir;
+            }
+            else {
+                subdir = tempdir + SystemProperties.fileSeparator + subdir;
+            }
+            boolean compress = entry.isCompress() && context.diagsConfig.compressResponses;
+            String outputName = relativeName + (compress ? ".gz" : "");
+            String fileName = subdir + SystemProperties.fileSeparator + outputName;
+
+            RestResult restResult = null;
+            long storedBytes;
+            HttpResponse response = restClient.execGet(entry.getUrl(),
+                    context.collectionBudget.timeoutFor(entry, context.diagsConfig.socketTimeout),
+                    context.diagsConfig.requestCompression);
+            try {
+                if (context.outputSink != null && !READ_BACK_FILES.contains(relativeName)
+                        && response.getStatusLine().getStatusCode() == 200) {
+                    // Only successful responses go to the sink. Failures are small and stay in tempDir,
+                    // where a later success must not leave them behind.
+                    String entryPath = StringUtils.isEmpty(entry.getSubdir()) ? outputName : entry.getSubdir() + "/" + outputName;
+                    OutputStream sinkOutput = context.outputSink.newOutput(entryPath);
+                    CountingOutputStream out = new CountingOutputStream(sinkOutput);
+                    try {
+                        restResult = new RestResult(response, out, entry.getUrl(), compress);
+                    } catch (RuntimeException e) {
+                        context.outputSink.discard(sinkOutput);
+                        throw e;
+                    }
+                    storedBytes = out.getByteCount();
+                    if (!restResult.isValid()) {
+                        // Nothing of a body that broke off part way, or couldn't be decoded, goes into the archive
+                        context.outputSink.discard(sinkOutput);
+                    } else {
+                        out.close();
+                        FileUtils.deleteQuietly(new File(fileName));
+                        fileName = entryPath;
+                    }
+                } else {
                     File nestedFolder = new File(subdir);
                     if( ! nestedFolder.isDirectory() ){
-                        nestedFolder.mkdir();
+                        // mkdirs tolerates another worker creating the same folder first
+                        nestedFolder.mkdirs();
                     }
+                    restResult = new RestResult(response, fileName, entry.getUrl(), compress);
+                    storedBytes = new File(fileName).length();
                 }
-                String fileName = subdir + SystemProperties.fileSeparator + entry.getName() + entry.getExtension();
-                RestResult restResult = restClient.execQuery(entry.getUrl(), fileName);
-                if (restResult.isValid()) {
-                    logger.info(Constants.CONSOLE, "Results written to: {}", fileName);
+            } finally {
+                // RestResult closes the response once it has it, anything failing before then must not leak it
+                if (restResult == null) {
+                    HttpClientUtils.closeQuietly(response);
+                }
+            }
+            stats.recordAttempt(restResult.getStatus(), (System.nanoTime() - start) / 1_000_000,
+                    restResult.getBytes(), storedBytes, restResult.getRetryAfterMillis());
+            stats.recordOutput(restResult.isTruncated(), restResult.getChecksum(), restResult.getTransferredBytes());
+            // A body that breaks off part way counts against the endpoint like a timeout
+            context.circuitBreaker.record(entry.getUrl(), restResult.isTruncated() ? -1 : restResult.getStatus());
+
+            if (restResult.isValid()) {
+                logger.info(Constants.CONSOLE, "Results written to: {}", fileName);
+            }
+            else{
+                if(entry.isRetry() && restResult.isRetryable()){
+                    logger.info("{}   {}  failed.", entry.getName(), entry.getUrl());
+                    logger.info(restResult.formatStatusMessage("Flagged for retry."));
+                    return true;
                 }
                 else{
-                    if(entry.isRetry() && restResult.isRetryable()){
-                        retryFailed.add(entry);
-                        logger.info("{}   {}  failed.", entry.getName(), entry.getUrl());
-                        logger.info(restResult.formatStatusMessage("Flagged for retry."));
-                    }
-                    else{
-                        logger.info(Constants.CONSOLE, "{}   {}  failed. Bypassing", entry.getName(), entry.getUrl());
-                        logger.info(Constants.CONSOLE, restResult.formatStatusMessage("See archived diagnostics.log for more detail."));
-                    }
+                    logger.info(Constants.CONSOLE, "{}   {}  failed. Bypassing", entry.getName(), entry.getUrl());
+                    logger.info(Constants.CONSOLE, restResult.formatStatusMessage("See archived diagnostics.log for more detail."));
                 }
-            } catch (Exception e) {
-                // Something happens just log it and go to the next query.
-                logger.error( "Error occurred executing query {}", entry.getName() + " - " + entry.getUrl(), e);
-                continue;
             }
+        } catch (Exception e) {
+            // Something happens just log it and go to the next query.
+            logger.error( "Error occurred executing query {}", entry.getName() + " - " + entry.getUrl(), e);
+            stats.recordAttempt(-1, (System.nanoTime() - start) / 1_000_000, 0, 0);
 
+            // Connect and socket timeouts, as from an overloaded master, are worth another attempt
+            if (ExceptionUtils.indexOfType(e, InterruptedIOException.class) != -1) {
+                context.circuitBreaker.record(entry.getUrl(), -1);
+                if (entry.isRetry()) {
+                    logger.info("{}   {}  timed out. Flagged for retry.", entry.getName(), entry.getUrl());
+                    return true;
+                }
+            }
         }
-        return retryFailed;
 
+        return false;
     }
 
 }
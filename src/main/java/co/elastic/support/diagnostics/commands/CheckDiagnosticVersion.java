@@ -59,7 +59,8 @@ public class CheckDiagnosticVersion implements Command {
                     context.diagsConfig.extraHeaders,
                     context.diagsConfig.connectionTimeout,
                     context.diagsConfig.connectionRequestTimeout,
-                    context.diagsConfig.socketTimeout)){
+                    context.diagsConfig.socketTimeout,
+                    context.diagsConfig.httpBackend)){
 
             // Get the current diagnostic version that was populated in the
             // manifest generation step - if we're running in
@@ -60,7 +60,8 @@ public class CheckElasticsearchVersion implements Command {
                     config.extraHeaders,
                     config.connectionTimeout,
                     config.connectionRequestTimeout,
-                    config.socketTimeout);
+                    config.socketTimeout,
+                    config.httpBackend);
 
             // Add it to the global cache - automatically closed on exit.
             context.resourceCache.addRestClient(Constants.restInputHost, restClient);
@@ -61,7 +61,8 @@ public class CheckLogstashVersion implements Command {
                     context.diagsConfig.extraHeaders,
                     context.diagsConfig.connectionTimeout,
                     context.diagsConfig.connectionRequestTimeout,
-                    context.diagsConfig.socketTimeout);
+                    context.diagsConfig.socketTimeout,
+                    context.diagsConfig.httpBackend);
 
             // Add it to the global cache - automatically closed on exit.
             context.resourceCache.addRestClient(Constants.restInputHost, restClient);
@@ -9,6 +9,7 @@ package co.elastic.support.diagnostics.commands;
 import co.elastic.support.Constants;
 import co.elastic.support.diagnostics.chain.Command;
 import co.elastic.support.diagnostics.chain.DiagnosticContext;
+import co.elastic.support.rest.RestCallStats;
 import co.elastic.support.util.SystemProperties;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
@@ -18,6 +19,8 @@ import org.apache.logging.log4j.Logger;
 import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
 
 /**
  * Generate a manifest containing the basic runtime info for the diagnostic
@@ -52,6 +55,20 @@ public class GenerateDiagnosticManifest implements Command {
          manifest.put("flags", context.diagnosticInputs.toString());
          manifest.put("runner", context.diagnosticInputs.runner);
          manifest.put("mode", context.diagnosticInputs.mode);
+         manifest.put("rest_calls", new TreeMap<>(context.restCallStats));
+         manifest.put("skipped_calls", context.restCallStats.entrySet().stream()
+               .filter(e -> e.getValue().getSkipped() != null)
+               .map(Map.Entry::getKey)
+               .sorted()
+               .collect(Collectors.toList()));
+         manifest.put("transfer_saved_bytes", context.restCallStats.values().stream()
+               .mapToLong(RestCallStats::getSavedBytes)
+               .sum());
+         manifest.put("truncated_calls", context.restCallStats.entrySet().stream()
+               .filter(e -> e.getValue().isTruncated())
+               .map(Map.Entry::getKey)
+               .sorted()
+               .collect(Collectors.toList()));
 
          mapper.writeValue(
                new File(context.tempDir + SystemProperties.fileSeparator + "diagnostic_manifest.json"),
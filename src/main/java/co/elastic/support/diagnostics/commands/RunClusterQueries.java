@@ -42,7 +42,7 @@ public class RunClusterQueries extends BaseQuery {
                 client = ResourceCache.getRestClient(Constants.restInputHost);
             }*/
 
-            runQueries(client, entries, context.tempDir, diagConfig.callRetries, diagConfig.pauseRetries);
+            runQueries(client, entries, context, diagConfig.callRetries, diagConfig.pauseRetries);
         } catch (Throwable t) {
             logger.error( "Error executing REST queries", t);
             throw new DiagnosticException(String.format("Unrecoverable REST Query Execution error - exiting. %s", Constants.CHECK_LOG));
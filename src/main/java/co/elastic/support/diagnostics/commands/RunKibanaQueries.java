@@ -131,7 +131,7 @@ public class RunKibanaQueries extends BaseQuery {
             }
         }
 
-        return runQueries(client, queries, context.tempDir, 0, 0);
+        return runQueries(client, queries, context, 0, 0);
     }
 
     private String getPageUrl(RestEntry action, int page, int perPage, String perPageField) {
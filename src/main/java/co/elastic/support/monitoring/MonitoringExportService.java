@@ -78,7 +78,8 @@ public class MonitoringExportService extends ElasticRestClientService {
                     config.extraHeaders,
                     config.connectionTimeout,
                     config.connectionRequestTimeout,
-                    config.socketTimeout);
+                    config.socketTimeout,
+                    config.httpBackend);
 
             config.semver = CheckElasticsearchVersion.getElasticsearchVersion(client);
             String version = config.semver.getVersion();
@@ -20,6 +20,7 @@ import org.apache.logging.log4j.Logger;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.LinkedHashMap;
@@ -107,20 +108,7 @@ public class MonitoringImportProcessor {
                 String actionLine = JsonYamlUtils.mapper.writeValueAsString(inputAction);
 
                 while (contents != null) {
-                    // If clustername is present and they changed it, update
-                    sourceObject = JsonYamlUtils.mapper.readValue(contents, ObjectNode.class);
-                    String clusterName = sourceObject.path("cluster_name").asText();
-
-                    if (updateClusterName && StringUtils.isNotEmpty(clusterName)) {
-                        sourceObject.put("cluster_name", newClusterName);
-                    }
-
-                    String altClusterName = sourceObject.path("cluster_settings").path("cluster").path("metadata").path("display_name").asText();
-                    if (updateClusterName && StringUtils.isNotEmpty(altClusterName)) {
-                        sourceObject.with("cluster_settings").with("cluster").with("metadata").put("display_name", newClusterName);
-                    }
-
-                    String sourceLine = JsonYamlUtils.mapper.writeValueAsString(sourceObject);
+                    String sourceLine = sourceLine(contents);
 
                     batchBuilder.append(actionLine + "\n");
                     batchBuilder.append(sourceLine + "\n");
@@ -158,6 +146,27 @@ public class MonitoringImportProcessor {
 
     }
 
+    /**
+     * Re-serialises one exported document for the bulk request, with the cluster
+     * name replaced if a new one was given.
+     */
+    String sourceLine(String contents) throws IOException {
+        ObjectNode sourceObject = JsonYamlUtils.mapper.readValue(contents, ObjectNode.class);
+
+        // If clustername is present and they changed it, update
+        String clusterName = sourceObject.path("cluster_name").asText();
+        if (updateClusterName && StringUtils.isNotEmpty(clusterName)) {
+            sourceObject.put("cluster_name", newClusterName);
+        }
+
+        String altClusterName = sourceObject.path("cluster_settings").path("cluster").path("metadata").path("display_name").asText();
+        if (updateClusterName && StringUtils.isNotEmpty(altClusterName)) {
+            sourceObject.with("cluster_settings").with("cluster").with("metadata").put("display_name", newClusterName);
+        }
+
+        return JsonYamlUtils.mapper.writeValueAsString(sourceObject);
+    }
+
     public void init(ZipFile zipFile) {
         // Nothing to do here;;
     }
@@ -89,7 +89,8 @@ public class MonitoringImportService extends ElasticRestClientService {
                 config.extraHeaders,
                 config.connectionTimeout,
                 config.connectionRequestTimeout,
-                config.socketTimeout
+                config.socketTimeout,
+                config.httpBackend
         );
 
     }
@@ -0,0 +1,90 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.rest;
+
+/**
+ * Bounds the time spent on REST calls so a diagnostic taken during an incident
+ * finishes within a known window. The clock starts with the first call.
+ * <p>
+ * Once most of the budget is gone, entries marked low priority are skipped so the
+ * rest has room. Once all of it is gone nothing more is started, and no single
+ * request is allowed to wait on the socket for longer than what is left.
+ */
+public class CollectionBudget {
+
+    // Share of the budget after which low priority entries are no longer started
+    static final double LOW_PRIORITY_SHARE = 0.75;
+
+    private final long budgetMillis;
+    private long startNanos = -1;
+
+    /**
+     * @param budgetMillis time allowed for all the REST calls, 0 or less for no limit
+     */
+    public CollectionBudget(long budgetMillis) {
+        this.budgetMillis = budgetMillis;
+    }
+
+    public boolean isLimited() {
+        return budgetMillis > 0;
+    }
+
+    /**
+     * Starts the clock. Later calls leave it running from the first one.
+     */
+    public synchronized void start() {
+        if (startNanos < 0) {
+            startNanos = System.nanoTime();
+        }
+    }
+
+    public synchronized long elapsedMillis() {
+        return startNanos < 0 ? 0 : (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    /**
+     * @return milliseconds left, or Long.MAX_VALUE if there is no limit
+     */
+    public long remainingMillis() {
+        if (!isLimited()) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, budgetMillis - elapsedMillis());
+    }
+
+    /**
+     * @return null if the entry can still be started, otherwise why it is skipped
+     */
+    public String skipReason(RestEntry entry) {
+        if (!isLimited()) {
+            return null;
+        }
+        if (remainingMillis() <= 0) {
+            return "budget exhausted";
+        }
+        if (entry.isLowPriority() && elapsedMillis() >= budgetMillis * LOW_PRIORITY_SHARE) {
+            return "budget low";
+        }
+        return null;
+    }
+
+    /**
+     * The socket timeout for an entry: its own if it has one, otherwise the default,
+     * but never more than the budget has left.
+     *
+     * @param defaultTimeout the client's socket timeout in milliseconds
+     * @return socket timeout in milliseconds, 0 to leave the client's in place
+     */
+    public int timeoutFor(RestEntry entry, int defaultTimeout) {
+        long timeout = entry.getTimeout() > 0 ? entry.getTimeout() * 1000L : defaultTimeout;
+        if (isLimited()) {
+            long remaining = Math.max(1, remainingMillis());
+            timeout = timeout > 0 ? Math.min(timeout, remaining) : remaining;
+        }
+        return (int) Math.max(0, timeout);
+    }
+}
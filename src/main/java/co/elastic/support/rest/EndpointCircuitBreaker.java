@@ -0,0 +1,78 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.rest;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stops retries against a class of endpoints once it has failed with a server error
+ * or a timeout a number of times in a row. The class of an endpoint is the first
+ * segment of its path, so /_cluster/state and /_cluster/settings share one, on the
+ * basis that they are served by the same part of a struggling cluster. /_cat and
+ * the Kibana /api only group unrelated APIs, so there the first two segments are
+ * used, and a failing /_cat/ml leaves /_cat/shards alone.
+ * <p>
+ * A single success closes the circuit again. Client errors such as 404 say nothing
+ * about the health of the cluster and are not counted.
+ */
+public class EndpointCircuitBreaker {
+
+    public static final int DEFAULT_FAILURES = 3;
+
+    // First segments that only group unrelated APIs
+    private static final Set<String> GROUPING_SEGMENTS = Set.of("_cat", "api");
+
+    private final int failures;
+    private final Map<String, AtomicInteger> consecutiveFailures = new ConcurrentHashMap<>();
+
+    public EndpointCircuitBreaker() {
+        this(DEFAULT_FAILURES);
+    }
+
+    /**
+     * @param failures consecutive failures after which an endpoint class is no longer retried. 0 disables the breaker.
+     */
+    public EndpointCircuitBreaker(int failures) {
+        this.failures = failures;
+    }
+
+    /**
+     * @param status the response status, or -1 if the call timed out
+     */
+    public void record(String url, int status) {
+        AtomicInteger count = consecutiveFailures.computeIfAbsent(endpointClass(url), k -> new AtomicInteger());
+        if (status == -1 || status >= 500) {
+            count.incrementAndGet();
+        } else if (status < 400) {
+            count.set(0);
+        }
+    }
+
+    public boolean isOpen(String url) {
+        if (failures <= 0) {
+            return false;
+        }
+        AtomicInteger count = consecutiveFailures.get(endpointClass(url));
+        return count != null && count.get() >= failures;
+    }
+
+    static String endpointClass(String url) {
+        String path = StringUtils.substringBefore(url, "?");
+        path = path.startsWith("/") ? path.substring(1) : path;
+        String segment = StringUtils.substringBefore(path, "/");
+        if (GROUPING_SEGMENTS.contains(segment)) {
+            String rest = StringUtils.substringAfter(path, "/");
+            return "/" + segment + "/" + StringUtils.substringBefore(rest, "/");
+        }
+        return "/" + segment;
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.rest;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.util.EntityUtils;
+
+import javax.net.ssl.SSLContext;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Authenticator;
+import java.net.InetSocketAddress;
+import java.net.PasswordAuthentication;
+import java.net.ProxySelector;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the requests of a {@link RestClient} on the JDK's HTTP client instead of
+ * Apache HttpClient. {@link #execute} blocks its caller until the response headers
+ * have arrived, as Apache HttpClient does, but the connections themselves are
+ * driven by a couple of selector threads whatever the number of requests in
+ * flight, and over TLS the client negotiates HTTP/2 where the server offers it so
+ * requests share one connection.
+ * <p>
+ * Requests and responses are the same Apache types the rest of the code already
+ * works with, so commands and {@link RestResult} do not change. Response bodies are
+ * streamed rather than buffered. At most a fixed number of requests are in flight;
+ * a slot is held until the response body has been read or closed, which is what
+ * keeps a fast cluster from outrunning slow writes to disk, or until the body has
+ * sent nothing for longer than the socket timeout.
+ */
+public class JdkHttpBackend {
+
+    // Set by the HTTP client itself, it will not accept them from the caller
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "expect", "host", "upgrade");
+
+    private final HttpClient client;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService watchdog;
+    private final String authorization;
+    private final Semaphore inFlight;
+    private final int connectionRequestTimeout;
+    private final int socketTimeout;
+
+    /**
+     * @param maxInFlight              requests allowed to run at once, further ones wait for a slot
+     * @param connectionRequestTimeout milliseconds to wait for a slot
+     * @param socketTimeout            milliseconds to wait for the response headers, and then between reads of the body,
+     *                                 when the request sets no timeout of its own
+     */
+    public JdkHttpBackend(
+            String scheme,
+            String user,
+            String password,
+            String proxyHost,
+            int proxyPort,
+            String proxyUser,
+            String proxyPassword,
+            SSLContext sslContext,
+            int maxInFlight,
+            int connectionTimeout,
+            int connectionRequestTimeout,
+            int socketTimeout) {
+
+        this.inFlight = new Semaphore(maxInFlight);
+        this.connectionRequestTimeout = connectionRequestTimeout;
+        this.socketTimeout = socketTimeout;
+        // Sent with every request, as the Apache client does through its auth cache
+        this.authorization = StringUtils.isNotEmpty(user)
+                ? "Basic " + Base64.getEncoder().encodeToString((user + ":" + password).getBytes(StandardCharsets.UTF_8))
+                : null;
+
+        executor = Executors.newFixedThreadPool(2, daemonThreads("jdk-http-client"));
+        watchdog = Executors.newSingleThreadScheduledExecutor(daemonThreads("jdk-http-watchdog"));
+
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .executor(executor)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .sslContext(sslContext)
+                // A cleartext HTTP/2 request is sent as an upgrade, which proxies and clusters may not expect
+                .version("https".equals(scheme) ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1);
+        if (connectionTimeout > 0) {
+            builder.connectTimeout(Duration.ofMillis(connectionTimeout));
+        }
+
+        if (StringUtils.isNotEmpty(proxyHost)) {
+            builder.proxy(ProxySelector.of(new InetSocketAddress(proxyHost, proxyPort)));
+            if (StringUtils.isNotEmpty(proxyUser)) {
+                builder.authenticator(new Authenticator() {
+                    @Override
+                    protected PasswordAuthentication getPasswordAuthentication() {
+                        if (getRequestorType() != RequestorType.PROXY) {
+                            return null;
+                        }
+                        return new PasswordAuthentication(proxyUser,
+                                proxyPassword != null ? proxyPassword.toCharArray() : new char[0]);
+                    }
+                });
+            }
+        }
+
+        client = builder.build();
+    }
+
+    public HttpResponse execute(HttpHost httpHost, HttpRequestBase request) throws IOException, InterruptedException {
+        int timeout = socketTimeout;
+        RequestConfig config = request.getConfig();
+        if (config != null && config.getSocketTimeout() > 0) {
+            timeout = config.getSocketTimeout();
+        }
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(httpHost.toURI() + request.getURI()));
+        if (timeout > 0) {
+            builder.timeout(Duration.ofMillis(timeout));
+        }
+        if (authorization != null) {
+            builder.header("Authorization", authorization);
+        }
+        for (Header header : request.getAllHeaders()) {
+            if (!RESTRICTED_HEADERS.contains(header.getName().toLowerCase(Locale.ROOT))) {
+                builder.header(header.getName(), header.getValue());
+            }
+        }
+
+        HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.noBody();
+        if (request instanceof HttpEntityEnclosingRequest && ((HttpEntityEnclosingRequest) request).getEntity() != null) {
+            body = HttpRequest.BodyPublishers.ofByteArray(
+                    EntityUtils.toByteArray(((HttpEntityEnclosingRequest) request).getEntity()));
+        }
+        builder.method(request.getMethod(), body);
+
+        acquireSlot();
+        try {
+            java.net.http.HttpResponse<InputStream> response =
+                    client.send(builder.build(), java.net.http.HttpResponse.BodyHandlers.ofInputStream());
+            return toHttpResponse(response, timeout);
+        } catch (HttpTimeoutException e) {
+            inFlight.release();
+            // Reported as the Apache client would, so it is recognised as a timeout and retried
+            IOException translated = e instanceof HttpConnectTimeoutException
+                    ? new ConnectTimeoutException(e.getMessage())
+                    : new SocketTimeoutException(e.getMessage());
+            translated.initCause(e);
+            throw translated;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private void acquireSlot() throws InterruptedException, ConnectionPoolTimeoutException {
+        if (connectionRequestTimeout > 0) {
+            if (!inFlight.tryAcquire(connectionRequestTimeout, TimeUnit.MILLISECONDS)) {
+                throw new ConnectionPoolTimeoutException("Timeout waiting for a free request slot");
+            }
+        } else {
+            inFlight.acquire();
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private HttpResponse toHttpResponse(java.net.http.HttpResponse<InputStream> response, int idleTimeout) {
+        int status = response.statusCode();
+        BasicHttpResponse adapted = new BasicHttpResponse(new BasicStatusLine(
+                response.version() == HttpClient.Version.HTTP_2 ? new HttpVersion(2, 0) : HttpVersion.HTTP_1_1,
+                status,
+                EnglishReasonPhraseCatalog.INSTANCE.getReason(status, Locale.ENGLISH)));
+
+        for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+            // HTTP/2 pseudo headers such as :status have no HTTP/1.1 equivalent
+            if (header.getKey().startsWith(":")) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                adapted.addHeader(header.getKey(), value);
+            }
+        }
+
+        long length = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+        InputStreamEntity entity = new InputStreamEntity(new SlotReleasingInputStream(response.body(), idleTimeout), length);
+        // Where EntityUtils finds the charset of the body
+        response.headers().firstValue("Content-Type").ifPresent(entity::setContentType);
+        adapted.setEntity(entity);
+        return adapted;
+    }
+
+    public void close() {
+        // The JDK client has no close of its own before Java 21. Its connections go with its threads.
+        executor.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
+    // Gives the request slot back once the caller is done with the body.
+    //
+    // The JDK client's timeout ends once the headers are in, so a body that stops
+    // arriving would block a read, and hold the slot, for good. The body is closed
+    // from the watchdog when nothing has been read from it for as long as the socket
+    // timeout, which is how a stalled socket times out under the Apache client.
+    private class SlotReleasingInputStream extends FilterInputStream {
+        private final AtomicBoolean released = new AtomicBoolean();
+        private final long idleNanos;
+        private volatile long lastRead = System.nanoTime();
+        private volatile boolean timedOut;
+        private volatile ScheduledFuture<?> watch;
+
+        SlotReleasingInputStream(InputStream in, int idleTimeout) {
+            super(in);
+            this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+            if (idleTimeout > 0) {
+                watchFor(idleNanos);
+            }
+        }
+
+        private void watchFor(long delayNanos) {
+            watch = watchdog.schedule(this::closeIfIdle, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void closeIfIdle() {
+            if (released.get()) {
+                return;
+            }
+            long idle = System.nanoTime() - lastRead;
+            if (idle < idleNanos) {
+                watchFor(idleNanos - idle);
+                return;
+            }
+            timedOut = true;
+            try {
+                close();
+            } catch (IOException e) {
+                // The slot is released whether or not the body closes cleanly
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return afterRead(super.read());
+            } catch (IOException e) {
+                throw timedOut ? timeout() : e;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            try {
+                return afterRead(super.read(buffer, off, len));
+            } catch (IOException e) {
+                throw timedOut ? timeout() : e;
+            }
+        }
+
+        // A body closed by the watchdog reads as if it had ended, which must not pass for a whole response
+        private int afterRead(int result) throws SocketTimeoutException {
+            if (timedOut) {
+                throw timeout();
+            }
+            lastRead = System.nanoTime();
+            return result;
+        }
+
+        private SocketTimeoutException timeout() {
+            return new SocketTimeoutException("Read timed out, no data for "
+                    + TimeUnit.NANOSECONDS.toMillis(idleNanos) + " ms");
+        }
+
+        @Override
+        public void close() throws IOException {
+            ScheduledFuture<?> current = watch;
+            if (current != null) {
+                current.cancel(false);
+            }
+            try {
+                super.close();
+            } finally {
+                if (released.compareAndSet(false, true)) {
+                    inFlight.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.rest;
+
+import lombok.Getter;
+
+/**
+ * Timing and size of the last attempt made for a single REST entry. These are
+ * collected for every call and written to the diagnostic manifest so slow or
+ * oversized endpoints on large clusters can be identified after the fact.
+ */
+@Getter
+public class RestCallStats {
+
+    private final String name;
+    private final String url;
+    private final int cost;
+    private int status;
+    private long durationMs;
+    private long bytes;
+    private long storedBytes;
+    private int attempts;
+    private long retryAfterMs = -1;
+    // Why the entry was not run, null if it was
+    private String skipped;
+    // The connection broke before the whole body of the last attempt arrived
+    private boolean truncated;
+    // SHA-256 of the output file as stored, null unless the last attempt completed
+    private String checksum;
+    // Body bytes received, fewer than bytes when the response was compressed in transit
+    private long transferredBytes;
+    private long savedBytes;
+
+    public RestCallStats(RestEntry entry) {
+        this.name = entry.getName();
+        this.url = entry.getUrl();
+        this.cost = entry.getCost();
+    }
+
+    /**
+     * @param bytes       size of the response body as received
+     * @param storedBytes size of the output file, smaller than bytes when the output is compressed
+     */
+    public synchronized void recordAttempt(int status, long durationMs, long bytes, long storedBytes) {
+        recordAttempt(status, durationMs, bytes, storedBytes, -1);
+    }
+
+    /**
+     * @param retryAfterMs delay the server asked for in a Retry-After header, or -1
+     */
+    public synchronized void recordAttempt(int status, long durationMs, long bytes, long storedBytes, long retryAfterMs) {
+        this.status = status;
+        this.durationMs = durationMs;
+        this.bytes = bytes;
+        this.storedBytes = storedBytes;
+        this.retryAfterMs = retryAfterMs;
+        this.truncated = false;
+        this.checksum = null;
+        this.transferredBytes = bytes;
+        this.savedBytes = 0;
+        this.attempts++;
+    }
+
+    /**
+     * Records what the last attempt left behind, after {@link #recordAttempt}.
+     *
+     * @param transferredBytes body bytes received, before the response was decoded
+     */
+    public synchronized void recordOutput(boolean truncated, String checksum, long transferredBytes) {
+        this.truncated = truncated;
+        this.checksum = checksum;
+        this.transferredBytes = transferredBytes;
+        this.savedBytes = Math.max(0, bytes - transferredBytes);
+    }
+
+    public synchronized void recordSkipped(String reason) {
+        this.skipped = reason;
+    }
+}
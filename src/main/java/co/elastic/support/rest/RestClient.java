@@ -9,6 +9,7 @@ package co.elastic.support.rest;
 import co.elastic.support.Constants;
 import co.elastic.support.util.SystemProperties;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.auth.AUTH;
@@ -25,7 +26,6 @@ import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
-import org.apache.http.conn.HttpHostConnectException;
 import org.apache.http.conn.socket.ConnectionSocketFactory;
 import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
@@ -44,11 +44,19 @@ import org.apache.http.ssl.SSLContextBuilder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
 import java.io.Closeable;
 import java.io.FileInputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.ConnectException;
+import java.net.Socket;
 import java.security.KeyStore;
+import java.security.cert.X509Certificate;
 import java.util.Map;
 
 public class RestClient implements Closeable {
@@ -56,17 +64,45 @@ public class RestClient implements Closeable {
     private static final Logger logger = LogManager.getLogger(RestClient.class);
     private static final int maxTotal = 100, defaultMaxPerRoute = 10;
 
+    public static final String APACHE_BACKEND = "apache";
+    public static final String JDK_BACKEND = "jdk";
+
     private final CloseableHttpClient client;
     private final HttpHost httpHost;
     private final HttpClientContext httpContext;
     private final Map<String, String> extraHeaders;
+    private final RequestConfig requestConfig;
+    private final JdkHttpBackend jdkBackend;
 
     public RestClient(CloseableHttpClient client, HttpHost httpHost, HttpClientContext context,
             Map<String, String> extraHeaders) {
+        this(client, httpHost, context, extraHeaders, null);
+    }
+
+    /**
+     * @param requestConfig the client's default request settings, which a per request timeout starts from
+     */
+    public RestClient(CloseableHttpClient client, HttpHost httpHost, HttpClientContext context,
+            Map<String, String> extraHeaders, RequestConfig requestConfig) {
         this.client = client;
         this.httpHost = httpHost;
         this.httpContext = context;
         this.extraHeaders = extraHeaders;
+        this.requestConfig = requestConfig;
+        this.jdkBackend = null;
+    }
+
+    /**
+     * A client that sends its requests through the JDK HTTP client, see {@link JdkHttpBackend}.
+     */
+    public RestClient(JdkHttpBackend jdkBackend, HttpHost httpHost, Map<String, String> extraHeaders,
+            RequestConfig requestConfig) {
+        this.client = null;
+        this.httpHost = httpHost;
+        this.httpContext = null;
+        this.extraHeaders = extraHeaders;
+        this.requestConfig = requestConfig;
+        this.jdkBackend = jdkBackend;
     }
 
     public RestResult execQuery(String url) {
@@ -77,12 +113,43 @@ public class RestClient implements Closeable {
         return new RestResult(execGet(url), fileName, url);
     }
 
+    // Asks for a compressed body, which RestResult decodes as it reads it
     public HttpResponse execGet(String query) {
+        return execGet(query, 0, true);
+    }
+
+    /**
+     * Executes a GET with its own socket timeout in place of the client's.
+     *
+     * @param socketTimeout milliseconds, 0 or less keeps the client default
+     * @param acceptGzip    ask for a gzip encoded body. {@link RestResult} decodes it, or stores it as it is when the
+     *                      output is gzipped anyway.
+     */
+    public HttpResponse execGet(String query, int socketTimeout, boolean acceptGzip) {
         HttpGet httpGet = new HttpGet(query);
-        logger.debug(query);
+        if (socketTimeout > 0) {
+            // A request level config replaces the default one entirely, so start from a copy of it
+            RequestConfig.Builder config = requestConfig != null ? RequestConfig.copy(requestConfig) : RequestConfig.custom();
+            httpGet.setConfig(config.setSocketTimeout(socketTimeout).build());
+        }
+        if (acceptGzip) {
+            httpGet.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        }
+        logger.debug("{} socket timeout: {} ms, gzip: {}", query, socketTimeout, acceptGzip);
         return execRequest(httpGet);
     }
 
+    // The context keeps the route, request and auth state of an execution, so requests
+    // running at the same time each need their own. Only the configured auth is shared.
+    private HttpClientContext requestContext() {
+        HttpClientContext context = HttpClientContext.create();
+        if (httpContext != null) {
+            context.setAuthCache(httpContext.getAuthCache());
+            context.setCredentialsProvider(httpContext.getCredentialsProvider());
+        }
+        return context;
+    }
+
     private HttpResponse execRequest(HttpRequestBase httpRequest) {
         if (extraHeaders != null) {
             for (Map.Entry<String, String> entry : extraHeaders.entrySet()) {
@@ -90,10 +157,17 @@ public class RestClient implements Closeable {
             }
         }
         try {
-            return client.execute(httpHost, httpRequest, httpContext);
-        } catch (HttpHostConnectException e) {
+            if (jdkBackend != null) {
+                return jdkBackend.execute(httpHost, httpRequest);
+            }
+            return client.execute(httpHost, httpRequest, requestContext());
+        } catch (ConnectException e) {
+            // HttpHostConnectException from Apache HttpClient, a plain ConnectException from the JDK
             logger.error("Host connection error", e);
             throw new RuntimeException("Host connection failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted during HTTP execution", e);
         } catch (Exception e) {
             logger.error("Unexpected execution error", e);
             throw new RuntimeException("Unexpected error during HTTP execution", e);
@@ -126,6 +200,9 @@ public class RestClient implements Closeable {
             if (client != null) {
                 client.close();
             }
+            if (jdkBackend != null) {
+                jdkBackend.close();
+            }
         } catch (Exception e) {
             logger.error("Error occurred closing client connection", e);
         }
@@ -148,6 +225,38 @@ public class RestClient implements Closeable {
             int connectionTimeout,
             int connectionRequestTimeout,
             int socketTimeout) {
+        return getClient(host, port, scheme, user, password, proxyHost, proxyPort, proxyUser, proxyPassword,
+                pkiKeystore, pkiKeystorePass, bypassVerify, extraHeaders, connectionTimeout, connectionRequestTimeout,
+                socketTimeout, APACHE_BACKEND);
+    }
+
+    /**
+     * @param httpBackend {@link #JDK_BACKEND} to send requests through the JDK HTTP client, anything else for Apache HttpClient
+     */
+    public static RestClient getClient(
+            String host,
+            int port,
+            String scheme,
+            String user,
+            String password,
+            String proxyHost,
+            int proxyPort,
+            String proxyUser,
+            String proxyPassword,
+            String pkiKeystore,
+            String pkiKeystorePass,
+            boolean bypassVerify,
+            Map<String, String> extraHeaders,
+            int connectionTimeout,
+            int connectionRequestTimeout,
+            int socketTimeout,
+            String httpBackend) {
+
+        if (JDK_BACKEND.equals(httpBackend)) {
+            return getJdkClient(host, port, scheme, user, password, proxyHost, proxyPort, proxyUser, proxyPassword,
+                    pkiKeystore, pkiKeystorePass, bypassVerify, extraHeaders, connectionTimeout, connectionRequestTimeout,
+                    socketTimeout);
+        }
 
         try {
             HttpClientBuilder clientBuilder = HttpClients.custom();
@@ -160,11 +269,15 @@ public class RestClient implements Closeable {
             // Generate BASIC scheme object and add it to the local auth cache
             BasicScheme basicAuth = new BasicScheme();
 
-            clientBuilder.setDefaultRequestConfig(RequestConfig.custom()
+            RequestConfig requestConfig = RequestConfig.custom()
                     .setCookieSpec(CookieSpecs.STANDARD)
                     .setConnectTimeout(connectionTimeout)
                     .setSocketTimeout(socketTimeout)
-                    .setConnectionRequestTimeout(connectionRequestTimeout).build());
+                    .setConnectionRequestTimeout(connectionRequestTimeout).build();
+            clientBuilder.setDefaultRequestConfig(requestConfig);
+            // Compressed responses are asked for by execGet, and RestResult decodes them itself
+            // so a gzip body can be stored without inflating and compressing it again.
+            clientBuilder.disableContentCompression();
 
             // If there's a proxy server, set it now.
             if (StringUtils.isNotEmpty(proxyHost)) {
@@ -197,16 +310,7 @@ public class RestClient implements Closeable {
                         new UsernamePasswordCredentials(proxyUser, proxyPassword));
             }
 
-            SSLContextBuilder sslContextBuilder = new SSLContextBuilder();
-            sslContextBuilder.loadTrustMaterial(new TrustAllStrategy());
-            if (StringUtils.isNotEmpty(pkiKeystore)) {
-                // If they are using a PKI auth set it up now
-                KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
-                ks.load(new FileInputStream(pkiKeystore), pkiKeystorePass.toCharArray());
-                sslContextBuilder.loadKeyMaterial(ks, pkiKeystorePass.toCharArray());
-            }
-
-            SSLContext sslCtx = sslContextBuilder.build();
+            SSLContext sslCtx = sslContext(pkiKeystore, pkiKeystorePass);
 
             SSLConnectionSocketFactory factory = null;
             if (bypassVerify) {
@@ -229,10 +333,109 @@ public class RestClient implements Closeable {
 
             CloseableHttpClient httpClient = clientBuilder.build();
 
-            return new RestClient(httpClient, httpHost, context, extraHeaders);
+            return new RestClient(httpClient, httpHost, context, extraHeaders, requestConfig);
+        } catch (Exception e) {
+            logger.error("Connection setup failed", e);
+            throw new RuntimeException("Error establishing http connection for: " + host, e);
+        }
+    }
+
+    private static RestClient getJdkClient(
+            String host,
+            int port,
+            String scheme,
+            String user,
+            String password,
+            String proxyHost,
+            int proxyPort,
+            String proxyUser,
+            String proxyPassword,
+            String pkiKeystore,
+            String pkiKeystorePass,
+            boolean bypassVerify,
+            Map<String, String> extraHeaders,
+            int connectionTimeout,
+            int connectionRequestTimeout,
+            int socketTimeout) {
+
+        try {
+            // The JDK client always asks for the host name to be checked, and only a trust manager that
+            // does the checking itself can leave it out. Set per client so no other one is affected.
+            SSLContext sslCtx = bypassVerify
+                    ? sslContext(pkiKeystore, pkiKeystorePass, new TrustAllManager())
+                    : sslContext(pkiKeystore, pkiKeystorePass);
+            JdkHttpBackend backend = new JdkHttpBackend(scheme, user, password, proxyHost, proxyPort, proxyUser,
+                    proxyPassword, sslCtx, defaultMaxPerRoute, connectionTimeout,
+                    connectionRequestTimeout, socketTimeout);
+            RequestConfig requestConfig = RequestConfig.custom()
+                    .setConnectTimeout(connectionTimeout)
+                    .setSocketTimeout(socketTimeout)
+                    .setConnectionRequestTimeout(connectionRequestTimeout).build();
+            return new RestClient(backend, new HttpHost(host, port, scheme), extraHeaders, requestConfig);
         } catch (Exception e) {
             logger.error("Connection setup failed", e);
             throw new RuntimeException("Error establishing http connection for: " + host, e);
         }
     }
+
+    // Trusts any server certificate, and presents the PKI keystore when there is one
+    private static SSLContext sslContext(String pkiKeystore, String pkiKeystorePass) throws Exception {
+        SSLContextBuilder sslContextBuilder = new SSLContextBuilder();
+        sslContextBuilder.loadTrustMaterial(new TrustAllStrategy());
+        if (StringUtils.isNotEmpty(pkiKeystore)) {
+            // If they are using a PKI auth set it up now
+            KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
+            ks.load(new FileInputStream(pkiKeystore), pkiKeystorePass.toCharArray());
+            sslContextBuilder.loadKeyMaterial(ks, pkiKeystorePass.toCharArray());
+        }
+        return sslContextBuilder.build();
+    }
+
+    // Same as above, with the given trust manager in place of the trust all strategy
+    private static SSLContext sslContext(String pkiKeystore, String pkiKeystorePass, TrustManager trustManager) throws Exception {
+        KeyManager[] keyManagers = null;
+        if (StringUtils.isNotEmpty(pkiKeystore)) {
+            KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
+            ks.load(new FileInputStream(pkiKeystore), pkiKeystorePass.toCharArray());
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(ks, pkiKeystorePass.toCharArray());
+            keyManagers = kmf.getKeyManagers();
+        }
+        SSLContext sslCtx = SSLContext.getInstance("TLS");
+        sslCtx.init(keyManagers, new TrustManager[]{trustManager}, null);
+        return sslCtx;
+    }
+
+    // Trusts any server certificate for any host name. The JDK only checks the host name for
+    // trust managers that are not an X509ExtendedTrustManager, or inside the default one.
+    private static class TrustAllManager extends X509ExtendedTrustManager {
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) {
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
 }
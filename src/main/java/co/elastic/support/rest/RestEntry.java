@@ -21,6 +21,12 @@ public class RestEntry {
     private final String pageableFieldName;
     private final boolean pageable;
     private final boolean spaceAware;
+    private final int cost;
+    private final boolean compress;
+    // Socket timeout in seconds for this entry, 0 for the rest-config default
+    private final int timeout;
+    // Skipped first when the collection budget runs low
+    private final boolean lowPriority;
 
     public RestEntry(String name, String subdir, String extension, boolean retry, String url, boolean showErrors) {
         this(name, subdir, extension, retry, url, showErrors, null, false);
@@ -36,18 +42,126 @@ public class RestEntry {
         String pageableFieldName,
         boolean spaceAware
     ) {
-        this.name = name;
-        this.subdir = subdir;
-        this.extension = extension;
-        this.retry = retry;
-        this.url = url;
-        this.showErrors = showErrors;
-        this.pageableFieldName = pageableFieldName;
-        this.pageable = pageableFieldName != null;
-        this.spaceAware = spaceAware;
+        this(builder(name, url)
+            .subdir(subdir)
+            .extension(extension)
+            .retry(retry)
+            .showErrors(showErrors)
+            .pageableFieldName(pageableFieldName)
+            .spaceAware(spaceAware));
+    }
+
+    private RestEntry(Builder builder) {
+        this.name = builder.name;
+        this.subdir = builder.subdir;
+        this.extension = builder.extension;
+        this.retry = builder.retry;
+        this.url = builder.url;
+        this.showErrors = builder.showErrors;
+        this.pageableFieldName = builder.pageableFieldName;
+        this.pageable = builder.pageableFieldName != null;
+        this.spaceAware = builder.spaceAware;
+        this.cost = builder.cost;
+        this.compress = builder.compress;
+        this.timeout = builder.timeout;
+        this.lowPriority = builder.lowPriority;
+    }
+
+    public static Builder builder(String name, String url) {
+        return new Builder(name, url);
     }
 
     public RestEntry copyWithNewUrl(String url, String subdir) {
-        return new RestEntry(name, subdir, extension, retry, url, showErrors, pageableFieldName, spaceAware);
+        return new RestEntry(builder(name, url)
+            .subdir(subdir)
+            .extension(extension)
+            .retry(retry)
+            .showErrors(showErrors)
+            .pageableFieldName(pageableFieldName)
+            .spaceAware(spaceAware)
+            .cost(cost)
+            .compress(compress)
+            .timeout(timeout)
+            .lowPriority(lowPriority));
+    }
+
+    /**
+     * Sets the optional settings of an entry by name, with the same defaults as elastic-rest.yml.
+     */
+    public static class Builder {
+        private final String name;
+        private final String url;
+        private String subdir = "";
+        private String extension = ".json";
+        private boolean retry;
+        private boolean showErrors = true;
+        private String pageableFieldName;
+        private boolean spaceAware;
+        private int cost;
+        private boolean compress;
+        private int timeout;
+        private boolean lowPriority;
+
+        private Builder(String name, String url) {
+            this.name = name;
+            this.url = url;
+        }
+
+        public Builder subdir(String subdir) {
+            this.subdir = subdir;
+            return this;
+        }
+
+        public Builder extension(String extension) {
+            this.extension = extension;
+            return this;
+        }
+
+        public Builder retry(boolean retry) {
+            this.retry = retry;
+            return this;
+        }
+
+        public Builder showErrors(boolean showErrors) {
+            this.showErrors = showErrors;
+            return this;
+        }
+
+        public Builder pageableFieldName(String pageableFieldName) {
+            this.pageableFieldName = pageableFieldName;
+            return this;
+        }
+
+        public Builder spaceAware(boolean spaceAware) {
+            this.spaceAware = spaceAware;
+            return this;
+        }
+
+        public Builder cost(int cost) {
+            this.cost = cost;
+            return this;
+        }
+
+        public Builder compress(boolean compress) {
+            this.compress = compress;
+            return this;
+        }
+
+        /**
+         * @param timeout socket timeout in seconds, 0 for the rest-config default
+         */
+        public Builder timeout(int timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        public Builder lowPriority(boolean lowPriority) {
+            this.lowPriority = lowPriority;
+            return this;
+        }
+
+        public RestEntry build() {
+            return new RestEntry(this);
+        }
     }
 }
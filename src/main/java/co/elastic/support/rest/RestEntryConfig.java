@@ -63,17 +63,12 @@ public class RestEntryConfig {
 
     @SuppressWarnings("unchecked")
     private RestEntry buildRestEntryForVersion(String name, Map<String, Object> entry) {
-        String subdir = (String) ObjectUtils.getIfNull(entry.get("subdir"), "");
-        String extension = (String) ObjectUtils.getIfNull(entry.get("extension"), ".json");
-        boolean retry = (boolean) ObjectUtils.getIfNull(entry.get("retry"), false);
-        boolean showErrors = (boolean) ObjectUtils.getIfNull(entry.get("showErrors"), true);
-
         Map<String, Object> versions = (Map<String, Object>) entry.get("versions");
 
         for (Map.Entry<String, Object> urlVersion : versions.entrySet()) {
             if (semver.satisfies(urlVersion.getKey())) {
                 if (urlVersion.getValue() instanceof String) {
-                    return new RestEntry(name, subdir, extension, retry, (String) urlVersion.getValue(), showErrors);
+                    return builder(name, (String) urlVersion.getValue(), entry).build();
                     // We allow it to be String,String or String,Map(url,paginate,spaceaware)
                 } else if (urlVersion.getValue() instanceof Map) {
                     Map<String, Object> info = (Map<String, Object>) urlVersion.getValue();
@@ -87,11 +82,27 @@ public class RestEntryConfig {
                     String pageableFieldName = (String) ObjectUtils.getIfNull(info.get("paginate"), null);
                     boolean spaceAware = (boolean) ObjectUtils.getIfNull(info.get("spaceaware"), false);
 
-                    return new RestEntry(name, subdir, extension, retry, url, showErrors, pageableFieldName, spaceAware);
+                    return builder(name, url, entry)
+                        .pageableFieldName(pageableFieldName)
+                        .spaceAware(spaceAware)
+                        .build();
                 }
             }
         }
 
         return null;
     }
+
+    // The settings that are the same whichever URL the version picks
+    private static RestEntry.Builder builder(String name, String url, Map<String, Object> entry) {
+        return RestEntry.builder(name, url)
+            .subdir((String) ObjectUtils.getIfNull(entry.get("subdir"), ""))
+            .extension((String) ObjectUtils.getIfNull(entry.get("extension"), ".json"))
+            .retry((boolean) ObjectUtils.getIfNull(entry.get("retry"), false))
+            .showErrors((boolean) ObjectUtils.getIfNull(entry.get("showErrors"), true))
+            .cost((int) ObjectUtils.getIfNull(entry.get("cost"), 0))
+            .compress((boolean) ObjectUtils.getIfNull(entry.get("compress"), false))
+            .timeout((int) ObjectUtils.getIfNull(entry.get("timeout"), 0))
+            .lowPriority("low".equals(entry.get("priority")));
+    }
 }
@@ -10,26 +10,67 @@ import co.elastic.support.util.SystemProperties;
 import co.elastic.support.Constants;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.io.output.TaggedOutputStream;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.DeflateInputStream;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.client.utils.DateUtils;
 import org.apache.http.client.utils.HttpClientUtils;
 import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class RestResult implements Cloneable {
 
     private static final Logger logger = LogManager.getLogger(RestResult.class);
 
+    // Suffix of the file a response is streamed into before it is renamed into place
+    public static final String PART_SUFFIX = ".part";
+
+    private static final String GZIP = "gzip";
+    private static final String DEFLATE = "deflate";
+
     String responseString = "Undetermined error = check logs";
     int status = -1;
     String reason;
     boolean isRetryable;
     String url = "";
+    long bytes;
+    long retryAfterMillis = -1;
+    long transferredBytes;
+    boolean truncated;
+    boolean unsupportedEncoding;
+    String checksum;
 
     // Sending in a response object to be processed implicitly
     // closes the response as a result. The body is either streamed directly
@@ -38,7 +79,7 @@ public class RestResult implements Cloneable {
         this.url = url;
         try {
             processCodes(response);
-            responseString = EntityUtils.toString(response.getEntity());
+            responseString = EntityUtils.toString(decoded(response.getEntity(), contentEncoding(response)));
         } catch (Exception e) {
             logger.error("Error Processing Response", e);
             throw new RuntimeException();
@@ -48,27 +89,164 @@ public class RestResult implements Cloneable {
     }
 
     public RestResult(HttpResponse response, String fileName, String url) {
+        this(response, fileName, url, false);
+    }
+
+    // When compress is set the entity is run through gzip on its way to the
+    // file so large responses are only written once, already compressed.
+    public RestResult(HttpResponse response, String fileName, String url, boolean compress) {
 
         this.url = url;
 
-        // If the query got a success status stream the result immediately to the target
-        // file.
-        // If not, the result should be small and contain diagnostic info so stgre it in
-        // the response string.
-        File output = new File(fileName);
-        if (output.exists()) {
-            FileUtils.deleteQuietly(output);
+        // The body goes to a temporary file next to the target and is only renamed to
+        // the target name once it is complete, so a connection that breaks part way
+        // through never leaves a file that looks like a whole response behind.
+        Path target = Paths.get(fileName);
+        Path part = Paths.get(fileName + PART_SUFFIX);
+
+        try {
+            streamTo(response, new BufferedOutputStream(Files.newOutputStream(part)), compress);
+            if (truncated || unsupportedEncoding) {
+                Files.deleteIfExists(part);
+                Files.deleteIfExists(target);
+            } else {
+                moveIntoPlace(part, target);
+            }
+        } catch (Exception e) {
+            FileUtils.deleteQuietly(part.toFile());
+            logger.error("Error Streaming Response To OutputStream", e);
+            throw new RuntimeException(e);
         }
+    }
 
-        try (OutputStream out = new FileOutputStream(fileName)) {
-            processCodes(response);
-            response.getEntity().writeTo(out);
+    private static void moveIntoPlace(Path part, Path target) throws IOException {
+        try {
+            Files.move(part, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Streams the body to a caller supplied destination, e.g. an entry in an open
+    // archive. The stream is left open so the caller can close it when the result is
+    // valid, or drop what was written when it is not.
+    public RestResult(HttpResponse response, OutputStream out, String url, boolean compress) {
+        this.url = url;
+
+        try {
+            streamTo(response, CloseShieldOutputStream.wrap(out), compress);
         } catch (Exception e) {
             logger.error("Error Streaming Response To OutputStream", e);
-            throw new RuntimeException();
+            throw new RuntimeException(e);
+        }
+    }
+
+    // The checksum covers the bytes as stored, after any compression, so it can be
+    // checked against the file without decompressing it.
+    //
+    // A body the server sent gzip encoded is stored as it came when the output is
+    // to be gzipped anyway, and only inflated on the side to count it. Otherwise it
+    // is decoded as it streams through.
+    private void streamTo(HttpResponse response, OutputStream target, boolean compress) throws IOException {
+        MessageDigest digest = newDigest();
+        // Tagged so a failed write, e.g. a full disk, is told apart from the connection breaking
+        TaggedOutputStream written = new TaggedOutputStream(target);
+        OutputStream digested = new DigestOutputStream(written, digest);
+        String encoding = contentEncoding(response);
+        if (!isSupported(encoding)) {
+            // Not a broken connection but a body we can't read, e.g. br from a proxy, which a retry would only repeat
+            processCodes(response);
+            unsupportedEncoding = true;
+            isRetryable = false;
+            reason = "Unsupported Content-Encoding: " + encoding;
+            logger.error("Response from {} has unsupported Content-Encoding {}", url, encoding);
+            HttpClientUtils.closeQuietly(response);
+            IOUtils.closeQuietly(target);
+            return;
+        }
+        boolean passThrough = compress && GZIP.equals(encoding);
+        try (OutputStream out = compress && !passThrough ? new GZIPOutputStream(digested, 64 * 1024) : digested) {
+            processCodes(response);
+            BoundedInputStream received = BoundedInputStream.builder()
+                    .setInputStream(response.getEntity().getContent())
+                    .get();
+            CountingOutputStream counter = new CountingOutputStream(passThrough ? NullOutputStream.INSTANCE : out);
+            try {
+                if (passThrough) {
+                    InputStream stored = new TeeInputStream(received, out);
+                    try (InputStream inflated = new GZIPInputStream(stored, 64 * 1024)) {
+                        IOUtils.copyLarge(inflated, counter);
+                        // Anything after the end of the gzip stream still belongs in the file
+                        IOUtils.copyLarge(stored, NullOutputStream.INSTANCE);
+                    }
+                } else {
+                    try (InputStream body = decode(received, encoding)) {
+                        IOUtils.copyLarge(body, counter);
+                    }
+                }
+            } catch (IOException e) {
+                // Not a truncated body but an error of our own, which a retry would only repeat
+                written.throwIfCauseOf(e);
+                // The status and headers arrived but the connection broke during the body
+                truncated = true;
+                isRetryable = true;
+                reason = "Response truncated after " + counter.getByteCount() + " bytes: " + e.getMessage();
+                logger.error("Response from {} truncated after {} bytes", url, counter.getByteCount(), e);
+            }
+            bytes = counter.getByteCount();
+            transferredBytes = received.getCount();
         } finally {
             HttpClientUtils.closeQuietly(response);
         }
+        if (!truncated) {
+            checksum = HexFormat.of().formatHex(digest.digest());
+        }
+    }
+
+    // The Content-Encoding of the body, null when it is sent as is
+    static String contentEncoding(HttpResponse response) {
+        Header header = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+        if (header == null || StringUtils.isBlank(header.getValue())) {
+            return null;
+        }
+        String encoding = header.getValue().trim().toLowerCase(Locale.ROOT);
+        if ("x-gzip".equals(encoding)) {
+            return GZIP;
+        }
+        return "identity".equals(encoding) ? null : encoding;
+    }
+
+    private static boolean isSupported(String encoding) {
+        return encoding == null || GZIP.equals(encoding) || DEFLATE.equals(encoding);
+    }
+
+    private static InputStream decode(InputStream in, String encoding) throws IOException {
+        if (encoding == null) {
+            return in;
+        } else if (GZIP.equals(encoding)) {
+            return new GZIPInputStream(in, 64 * 1024);
+        } else if (DEFLATE.equals(encoding)) {
+            return new DeflateInputStream(in);
+        }
+        throw new IOException("Unsupported Content-Encoding: " + encoding);
+    }
+
+    private static HttpEntity decoded(HttpEntity entity, String encoding) {
+        if (GZIP.equals(encoding)) {
+            return new GzipDecompressingEntity(entity);
+        } else if (DEFLATE.equals(encoding)) {
+            return new DeflateDecompressingEntity(entity);
+        }
+        return entity;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
     }
 
     private void processCodes(HttpResponse response) {
@@ -85,10 +263,36 @@ public class RestResult implements Cloneable {
         } else if (status == 404) {
             reason = "Endpoint does not exist.";
             isRetryable = true;
+        } else if (status == 429) {
+            reason = "Too many requests. The cluster is rejecting work.";
+            isRetryable = true;
         } else {
             reason = response.getStatusLine().getReasonPhrase();
             isRetryable = true;
         }
+
+        // Sent with 429 and 503 by the cluster or a proxy in front of it
+        if (status == 429 || status == 503) {
+            retryAfterMillis = parseRetryAfter(response.getFirstHeader(HttpHeaders.RETRY_AFTER));
+        }
+    }
+
+    // Either a number of seconds or an HTTP date
+    static long parseRetryAfter(Header header) {
+        if (header == null || StringUtils.isBlank(header.getValue())) {
+            return -1;
+        }
+        String value = header.getValue().trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value);
+            if (date == null) {
+                logger.info("Ignoring unreadable Retry-After header: {}", value);
+                return -1;
+            }
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
     }
 
     public String formatStatusMessage(String msg) {
@@ -128,12 +332,54 @@ public class RestResult implements Cloneable {
         }
     }
 
+    /**
+     * @return number of response body bytes streamed to the output file, before any compression.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return number of body bytes received, smaller than {@link #getBytes()} when the server compressed the response.
+     */
+    public long getTransferredBytes() {
+        return transferredBytes;
+    }
+
+    /**
+     * @return how long the server asked for before the next attempt, or -1 if it did not say.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * @return hex SHA-256 of the output as stored, or null if the body was held in memory or truncated.
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @return true if the connection broke before the whole body was received.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @return true if the body was sent with a Content-Encoding that can't be decoded, and was not stored.
+     */
+    public boolean isUnsupportedEncoding() {
+        return unsupportedEncoding;
+    }
+
     public boolean isRetryable() {
         return isRetryable;
     }
 
     public boolean isValid() {
-        if (status == 200) {
+        if (status == 200 && !truncated && !unsupportedEncoding) {
             return true;
         }
         return false;
@@ -0,0 +1,106 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.scrub;
+
+import co.elastic.support.Constants;
+import co.elastic.support.diagnostics.DiagnosticException;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+
+/**
+ * Tokens made from an HMAC-SHA256 of the value, hex encoded and cut to the length
+ * of the value, up to 64 characters. Without the key a token can't be traced back
+ * to its value by hashing likely candidates, which is possible with the unkeyed
+ * UUID tokens.
+ * <p>
+ * The key is random for each run unless a key file is given. Scrubbing several
+ * bundles from the same cluster with the same key file gives the same tokens in
+ * all of them.
+ */
+public class HmacTokenGenerator implements TokenGenerator {
+
+    private static final Logger logger = LogManager.getLogger(HmacTokenGenerator.class);
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final SecretKeySpec key;
+    // Mac instances are not thread safe and are costly to set up, so each worker keeps one
+    private final ThreadLocal<Mac> mac;
+
+    public HmacTokenGenerator(byte[] key) {
+        this.key = new SecretKeySpec(key, ALGORITHM);
+        this.mac = ThreadLocal.withInitial(this::newMac);
+    }
+
+    /**
+     * @param keyFile file holding the key as hex. It is created with a new random key if
+     *                it does not exist. When empty a random key is used for this run only.
+     */
+    public static HmacTokenGenerator fromKeyFile(String keyFile) throws DiagnosticException {
+        if (StringUtils.isEmpty(keyFile)) {
+            logger.info(Constants.CONSOLE, "Tokens use a random key for this run only. Set key-file under token-generator in scrub.yml to get the same tokens in later runs.");
+            return new HmacTokenGenerator(randomKey());
+        }
+
+        Path path = Path.of(keyFile);
+        try {
+            if (Files.exists(path)) {
+                logger.info(Constants.CONSOLE, "Tokens use the key in {}", path.toAbsolutePath());
+                return new HmacTokenGenerator(HexFormat.of().parseHex(Files.readString(path).trim()));
+            }
+            byte[] key = randomKey();
+            Files.writeString(path, HexFormat.of().formatHex(key));
+            logger.info(Constants.CONSOLE, "Created key file {}. Use it in later runs to get the same tokens.", path.toAbsolutePath());
+            return new HmacTokenGenerator(key);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new DiagnosticException("Could not read or create the scrub key file: " + keyFile, e);
+        }
+    }
+
+    private static byte[] randomKey() {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+
+    private Mac newMac() {
+        try {
+            Mac instance = Mac.getInstance(ALGORITHM);
+            instance.init(key);
+            return instance;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    @Override
+    public String generate(String token) {
+        if (StringUtils.isEmpty(token)) {
+            return "";
+        }
+
+        byte[] digest = mac.get().doFinal(token.getBytes(StandardCharsets.UTF_8));
+        int len = Math.min(token.length(), 64);
+        char[] out = new char[len];
+        for (int i = 0; i < len; i++) {
+            int b = digest[i >> 1];
+            out[i] = HEX[(i & 1) == 0 ? (b >> 4) & 0xf : b & 0xf];
+        }
+        return new String(out);
+    }
+}
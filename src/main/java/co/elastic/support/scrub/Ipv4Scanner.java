@@ -0,0 +1,145 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.scrub;
+
+/**
+ * Finds and rewrites IPv4 addresses without going through a regex. It returns the
+ * same matches as {@link co.elastic.support.Constants#IPv4Regex} used with
+ * {@link java.util.regex.Matcher#find()}: the leftmost address, where each of the
+ * first three octets takes the longest run of digits that still lets the rest of the
+ * address match, and the last octet the longest valid one. There are no word
+ * boundaries, so in "1234.5.6.7" the match is "234.5.6.7", as with the regex.
+ * <p>
+ * Matches are reported through an int array supplied by the caller, holding the
+ * start, the end and the four octet values, and rewritten straight into the output
+ * through the octet table, so nothing is allocated per address.
+ */
+public class Ipv4Scanner {
+
+    public static final int MATCH_SIZE = 6;
+
+    private final int[] octets;
+
+    /**
+     * @param octets replacement for each of the 256 octet values
+     */
+    public Ipv4Scanner(int[] octets) {
+        if (octets.length != 256) {
+            throw new IllegalArgumentException("The octet table must have 256 entries");
+        }
+        this.octets = octets;
+    }
+
+    /**
+     * Looks for the next address in text between from and to.
+     *
+     * @param match receives the start, the end and the four octet values
+     * @return whether an address was found
+     */
+    public boolean find(char[] text, int from, int to, int[] match) {
+        // The shortest address is seven characters
+        for (int start = from; start <= to - 7; start++) {
+            if (isDigit(text[start]) && octet(text, start, to, 0, match)) {
+                match[0] = start;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void appendReplacement(StringBuilder output, int[] match) {
+        output.append(octets[match[2]]).append('.')
+                .append(octets[match[3]]).append('.')
+                .append(octets[match[4]]).append('.')
+                .append(octets[match[5]]);
+    }
+
+    /**
+     * Rewrites a single address, as found by this scanner or the IPv4 regex.
+     */
+    public String rewrite(String address) {
+        char[] text = address.toCharArray();
+        int[] match = new int[MATCH_SIZE];
+        if (text.length == 0 || !isDigit(text[0]) || !octet(text, 0, text.length, 0, match) || match[1] != text.length) {
+            throw new IllegalArgumentException("Not an IPv4 address: " + address);
+        }
+        StringBuilder output = new StringBuilder(15);
+        appendReplacement(output, match);
+        return output.toString();
+    }
+
+    public String replace(String content) {
+        char[] text = content.toCharArray();
+        int[] match = new int[MATCH_SIZE];
+        StringBuilder output = null;
+        int last = 0;
+        while (find(text, last, text.length, match)) {
+            if (output == null) {
+                output = new StringBuilder(content.length() + 64);
+            }
+            output.append(text, last, match[0] - last);
+            appendReplacement(output, match);
+            last = match[1];
+        }
+        if (output == null) {
+            return content;
+        }
+        return output.append(text, last, text.length - last).toString();
+    }
+
+    // Tries the octet at position with each possible length, longest first, as the regex backtracks
+    private static boolean octet(char[] text, int position, int to, int index, int[] match) {
+        int longest = longestOctet(text, position, to);
+        if (index == 3) {
+            if (longest == 0) {
+                return false;
+            }
+            match[5] = value(text, position, longest);
+            match[1] = position + longest;
+            return true;
+        }
+        for (int length = longest; length > 0; length--) {
+            int dot = position + length;
+            if (dot < to && text[dot] == '.' && octet(text, dot + 1, to, index + 1, match)) {
+                match[2 + index] = value(text, position, length);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Every shorter run of digits is also a valid octet, so only the longest has to be worked out
+    private static int longestOctet(char[] text, int position, int to) {
+        if (position >= to || !isDigit(text[position])) {
+            return 0;
+        }
+        if (position + 1 >= to || !isDigit(text[position + 1])) {
+            return 1;
+        }
+        if (position + 2 < to && isDigit(text[position + 2])) {
+            char first = text[position];
+            char second = text[position + 1];
+            if (first == '0' || first == '1'
+                    || (first == '2' && (second < '5' || (second == '5' && text[position + 2] <= '5')))) {
+                return 3;
+            }
+        }
+        return 2;
+    }
+
+    private static int value(char[] text, int position, int length) {
+        int value = 0;
+        for (int i = position; i < position + length; i++) {
+            value = value * 10 + (text[i] - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.scrub;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadFeature;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Scrubs JSON one string at a time with the Jackson streaming parser, so numbers,
+ * punctuation and whitespace are never scanned and a replacement can never break
+ * the structure. Only the field names and string values that change are rewritten;
+ * everything else is copied from the input as it was, formatting included. Memory
+ * use does not depend on the size of the document.
+ * <p>
+ * String values under one of the configured paths are handed to a separate
+ * function, so they can be replaced whether or not any pattern matches them. A
+ * path is a list of field names separated by dots, where * stands for any field
+ * name or array element, such as nodes.*.host.
+ */
+public class JsonScrubber {
+
+    private static final Logger logger = LogManager.getLogger(JsonScrubber.class);
+
+    private static final JsonFactory factory = JsonFactory.builder()
+            .disable(StreamReadFeature.AUTO_CLOSE_SOURCE)
+            .build();
+
+    // Field names repeat constantly, so their results are kept, up to a limit for ids used as names
+    private static final int MAX_CACHED_NAMES = 10000;
+
+    // Content read but not yet written is let out in steps of this size, since each write copies it
+    private static final int WRITE_THROUGH_CHARS = 64 * 1024;
+
+    private final List<String[]> paths = new ArrayList<>();
+
+    public JsonScrubber(List<String> paths) {
+        for (String path : paths) {
+            this.paths.add(path.split("\\."));
+        }
+    }
+
+    /**
+     * @param values   replacement for any field name or string value
+     * @param targeted replacement for string values under one of the paths
+     * @return null once everything has been written, or, if the content turns out not
+     * to be valid JSON, the part that has not been written yet
+     */
+    public Reader scrub(Reader input, Writer writer, UnaryOperator<String> values, UnaryOperator<String> targeted)
+            throws IOException {
+        RecordingReader reader = new RecordingReader(input);
+        Map<String, String> names = new HashMap<>();
+        long written = 0;
+
+        try (JsonParser parser = factory.createParser(reader)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                // Everything before the token is final whether or not anything in it was replaced,
+                // so it is written out and dropped rather than held until the next replacement
+                long start = parser.currentTokenLocation().getCharOffset();
+                if (start - written >= WRITE_THROUGH_CHARS) {
+                    reader.writeTo(writer, written, start);
+                    written = start;
+                    reader.discardBefore(written);
+                }
+
+                if (token != JsonToken.FIELD_NAME && token != JsonToken.VALUE_STRING) {
+                    continue;
+                }
+
+                String text = parser.getText();
+                String replaced;
+                if (token == JsonToken.FIELD_NAME) {
+                    replaced = names.get(text);
+                    if (replaced == null) {
+                        replaced = values.apply(text);
+                        if (names.size() < MAX_CACHED_NAMES) {
+                            names.put(text, replaced);
+                        }
+                    }
+                } else if (isTargeted(parser.getParsingContext())) {
+                    replaced = targeted.apply(text);
+                } else {
+                    replaced = values.apply(text);
+                }
+                if (replaced.equals(text)) {
+                    continue;
+                }
+
+                reader.writeTo(writer, written, start);
+                writer.write('"');
+                writer.write(JsonStringEncoder.getInstance().quoteAsString(replaced));
+                writer.write('"');
+                written = reader.stringEnd(start);
+                reader.discardBefore(written);
+            }
+        } catch (JsonProcessingException e) {
+            logger.info("Content is not valid JSON, scrubbing the rest as text: {}", e.getOriginalMessage());
+            return reader.remainder(written);
+        }
+
+        reader.drain();
+        reader.writeTo(writer, written, reader.end());
+        writer.flush();
+        return null;
+    }
+
+    private boolean isTargeted(JsonStreamContext context) {
+        for (String[] path : paths) {
+            if (matches(path, context)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Walks up from the value's context, comparing path segments from the last one back
+    private static boolean matches(String[] path, JsonStreamContext context) {
+        int segment = path.length - 1;
+        for (JsonStreamContext current = context; current != null && !current.inRoot(); current = current.getParent()) {
+            if (segment < 0) {
+                return false;
+            }
+            String expected = path[segment--];
+            if (!expected.equals("*") && !(current.inObject() && expected.equals(current.getCurrentName()))) {
+                return false;
+            }
+        }
+        return segment < 0;
+    }
+
+    // Keeps what the parser has read but has not been written out yet, so it can be copied unchanged
+    private static class RecordingReader extends Reader {
+        private final Reader in;
+        private final StringBuilder recorded = new StringBuilder();
+        private long base;
+
+        RecordingReader(Reader in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(char[] buffer, int off, int len) throws IOException {
+            int read = in.read(buffer, off, len);
+            if (read > 0) {
+                recorded.append(buffer, off, read);
+            }
+            return read;
+        }
+
+        long end() {
+            return base + recorded.length();
+        }
+
+        void writeTo(Writer writer, long from, long to) throws IOException {
+            writer.append(recorded, (int) (from - base), (int) (to - base));
+        }
+
+        // Offset just past the closing quote of the string starting at the given offset
+        long stringEnd(long start) {
+            for (int i = (int) (start - base) + 1; i < recorded.length(); i++) {
+                char c = recorded.charAt(i);
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    return base + i + 1;
+                }
+            }
+            throw new IllegalStateException("String at offset " + start + " has not been read");
+        }
+
+        // Dropped in large steps, since every delete moves what is left
+        void discardBefore(long offset) {
+            if (offset - base >= WRITE_THROUGH_CHARS) {
+                recorded.delete(0, (int) (offset - base));
+                base = offset;
+            }
+        }
+
+        void drain() throws IOException {
+            char[] buffer = new char[8192];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // recorded as it is read
+            }
+        }
+
+        Reader remainder(long from) {
+            Reader unwritten = new StringReader(recorded.substring((int) (from - base)));
+            return new Reader() {
+                @Override
+                public int read(char[] buffer, int off, int len) throws IOException {
+                    int read = unwritten.read(buffer, off, len);
+                    return read != -1 ? read : in.read(buffer, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    in.close();
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.scrub;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Replaces a fixed set of literal strings in one scan of the content, using an
+ * Aho-Corasick automaton built over the keys. Nothing is interpreted as a regex, so
+ * node names containing characters such as '.', '(' or '+' only ever match
+ * themselves, and the cost of a scan does not grow with the number of keys.
+ * <p>
+ * Where keys overlap, the one starting first wins and, of those, the longest.
+ */
+public class LiteralReplacer {
+
+    private final List<Map<Character, Integer>> transitions = new ArrayList<>();
+    private final List<String> values = new ArrayList<>();
+    private int[] fail;
+    private int[] depth;
+    // Node of the longest key that ends at each node, following failure links, or -1
+    private int[] output;
+
+    public LiteralReplacer(Map<String, String> replacements) {
+        List<Integer> depths = new ArrayList<>();
+        newNode(depths, 0);
+        for (Map.Entry<String, String> entry : replacements.entrySet()) {
+            String key = entry.getKey();
+            if (key == null || key.isEmpty()) {
+                continue;
+            }
+            int node = 0;
+            for (int i = 0; i < key.length(); i++) {
+                Integer next = transitions.get(node).get(key.charAt(i));
+                if (next == null) {
+                    next = newNode(depths, i + 1);
+                    transitions.get(node).put(key.charAt(i), next);
+                }
+                node = next;
+            }
+            values.set(node, entry.getValue());
+        }
+
+        int size = transitions.size();
+        fail = new int[size];
+        depth = new int[size];
+        output = new int[size];
+        for (int i = 0; i < size; i++) {
+            depth[i] = depths.get(i);
+        }
+        output[0] = -1;
+
+        // Breadth first so the failure link of a node is always resolved before its children
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : transitions.get(0).values()) {
+            fail[child] = 0;
+            output[child] = values.get(child) != null ? child : -1;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (Map.Entry<Character, Integer> edge : transitions.get(node).entrySet()) {
+                int child = edge.getValue();
+                fail[child] = step(fail[node], edge.getKey());
+                output[child] = values.get(child) != null ? child : output[fail[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    private int newNode(List<Integer> depths, int nodeDepth) {
+        transitions.add(new HashMap<>());
+        values.add(null);
+        depths.add(nodeDepth);
+        return transitions.size() - 1;
+    }
+
+    private int step(int node, char c) {
+        while (true) {
+            Integer next = transitions.get(node).get(c);
+            if (next != null) {
+                return next;
+            }
+            if (node == 0) {
+                return 0;
+            }
+            node = fail[node];
+        }
+    }
+
+    public boolean isEmpty() {
+        return transitions.get(0).isEmpty();
+    }
+
+    /**
+     * Finds the first key in the content at or after from.
+     *
+     * @return start, end and key node of the match, or null if there is none
+     */
+    int[] find(CharSequence content, int from) {
+        int[] best = null;
+        int node = 0;
+        for (int i = from; i < content.length(); i++) {
+            node = step(node, content.charAt(i));
+            // Anything found from here on starts after the current best
+            if (best != null && i + 1 - depth[node] > best[0]) {
+                break;
+            }
+            int match = output[node];
+            if (match != -1) {
+                int start = i + 1 - depth[match];
+                // At the same start a later end is a longer key
+                if (best == null || start <= best[0]) {
+                    best = new int[]{start, i + 1, match};
+                }
+            }
+        }
+        return best;
+    }
+
+    String replacement(int[] match) {
+        return values.get(match[2]);
+    }
+
+    public String replace(String content) {
+        if (isEmpty()) {
+            return content;
+        }
+
+        StringBuilder output = null;
+        int last = 0;
+        int[] match;
+        while ((match = find(content, last)) != null) {
+            if (output == null) {
+                output = new StringBuilder(content.length() + 64);
+            }
+            output.append(content, last, match[0]).append(replacement(match));
+            last = match[1];
+        }
+
+        if (output == null) {
+            return content;
+        }
+        return output.append(content, last, content.length()).toString();
+    }
+}
@@ -37,6 +37,18 @@ public class ScrubInputs extends BaseInputs {
     )
     public int workers = Runtime.getRuntime().availableProcessors();
 
+    @Parameter(
+        names = { "--dictionary" },
+        description = "Optional field. File that keeps replacement values between runs so the same value is replaced the same way in every bundle. Created if it does not exist."
+    )
+    public String dictionary;
+
+    @Parameter(
+        names = { "--ruleStats" },
+        description = "Optional field. Estimate the time spent on each rule in scrub-stats.json. Slows the run down, since sampled content is matched again for each rule."
+    )
+    public boolean ruleStats = false;
+
     // End Input Fields
 
     public String type = "zip";
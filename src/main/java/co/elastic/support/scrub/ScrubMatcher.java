@@ -0,0 +1,292 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.scrub;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds every kind of sensitive value in one scan of the content. The patterns
+ * are combined into a single alternation, each wrapped in its own group so the
+ * one that matched can be told apart, and every hit is replaced as the output is
+ * built. Literal values are found separately by a {@link LiteralReplacer}, and
+ * IPv4 addresses by an {@link Ipv4Scanner}, and merged with the regex matches.
+ * Text that has already been replaced is never scanned again.
+ * <p>
+ * When more than one pattern matches, the leftmost match wins and, at the same
+ * position, the pattern that was added first.
+ * <p>
+ * Groups are renumbered when the patterns are combined, so a pattern with a
+ * numbered back reference such as {@code (\w+)=\1} would refer to the wrong group.
+ * Those are kept out of the alternation and searched for on their own, taking
+ * their turn by the order they were added in like any other.
+ */
+public class ScrubMatcher {
+
+    // A backslash and a digit other than 0, not itself escaped
+    private static final Pattern BACK_REFERENCE = Pattern.compile("(?<!\\\\)(?:\\\\\\\\)*\\\\[1-9]");
+
+    private final ScrubStats stats;
+    private final List<TokenGenerator> generators = new ArrayList<>();
+    // Each pattern on its own, and the counters for each source, when stats are collected
+    private final List<Pattern> patterns = new ArrayList<>();
+    private final List<ScrubStats.Rule> rules = new ArrayList<>();
+    // Group of each pattern in the combined one, or -1 for one searched for on its own
+    private final List<Integer> groups = new ArrayList<>();
+    private final List<Integer> separate = new ArrayList<>();
+    // Order in which each pattern, the literals and the IPv4 scanner were added, lowest wins at the same position
+    private final List<Integer> ranks = new ArrayList<>();
+    private final StringBuilder combined = new StringBuilder();
+    private int groupCount = 0;
+    private int added = 0;
+    // Compiled on first use rather than on every add
+    private volatile Pattern pattern;
+    private LiteralReplacer literals;
+    private int literalRank;
+    private ScrubStats.Rule literalRule;
+    private Ipv4Scanner ipv4;
+    private int ipv4Rank;
+    private ScrubStats.Rule ipv4Rule;
+
+    public ScrubMatcher() {
+        this(null);
+    }
+
+    /**
+     * @param stats where hits for each rule are counted. Optional.
+     */
+    public ScrubMatcher(ScrubStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * @param regex     pattern for one kind of value
+     * @param generator produces the replacement for a matched value
+     */
+    public ScrubMatcher add(String regex, TokenGenerator generator) {
+        return add(regex, regex, generator);
+    }
+
+    /**
+     * @param rule name the pattern's hits are counted under
+     */
+    public ScrubMatcher add(String rule, String regex, TokenGenerator generator) {
+        Pattern single = Pattern.compile(regex);
+        if (BACK_REFERENCE.matcher(regex).find()) {
+            groups.add(-1);
+            separate.add(generators.size());
+        } else {
+            if (combined.length() > 0) {
+                combined.append('|');
+            }
+            combined.append('(').append(regex).append(')');
+            groups.add(++groupCount);
+            groupCount += single.matcher("").groupCount();
+            pattern = null;
+        }
+        generators.add(generator);
+        patterns.add(single);
+        rules.add(stats != null ? stats.rule(rule) : null);
+        ranks.add(added++);
+        return this;
+    }
+
+    /**
+     * Adds a set of literal values and their replacements. They are matched with
+     * an automaton rather than the regex, and rank between the patterns added
+     * before and after them.
+     */
+    public ScrubMatcher addLiterals(String rule, LiteralReplacer replacer) {
+        if (!replacer.isEmpty()) {
+            literals = replacer;
+            literalRank = added++;
+            literalRule = stats != null ? stats.rule(rule) : null;
+        }
+        return this;
+    }
+
+    public ScrubMatcher addLiterals(LiteralReplacer replacer) {
+        return addLiterals("literals", replacer);
+    }
+
+    /**
+     * Adds IPv4 addresses, found and rewritten by the scanner rather than the regex.
+     */
+    public ScrubMatcher addIpv4(String rule, Ipv4Scanner scanner) {
+        ipv4 = scanner;
+        ipv4Rank = added++;
+        ipv4Rule = stats != null ? stats.rule(rule) : null;
+        return this;
+    }
+
+    public ScrubMatcher addIpv4(Ipv4Scanner scanner) {
+        return addIpv4("ipv4", scanner);
+    }
+
+    public boolean isEmpty() {
+        return generators.isEmpty() && literals == null && ipv4 == null;
+    }
+
+    public String replace(String content) {
+        if (isEmpty()) {
+            return content;
+        }
+        if (stats != null && stats.scanned(content.length())) {
+            sample(content);
+        }
+
+        // The combined pattern first, then each pattern searched for on its own
+        Matcher[] matchers = new Matcher[separate.size() + 1];
+        int[] indexes = new int[matchers.length];
+        Pattern compiled = combinedPattern();
+        matchers[0] = compiled == null ? null : compiled.matcher(content);
+        indexes[0] = -1;
+        for (int i = 0; i < separate.size(); i++) {
+            indexes[i + 1] = separate.get(i);
+            matchers[i + 1] = patterns.get(indexes[i + 1]).matcher(content);
+        }
+        int[][] regexMatches = new int[matchers.length][];
+        boolean regexFound = false;
+        for (int i = 0; i < matchers.length; i++) {
+            regexMatches[i] = nextRegexMatch(matchers[i], indexes[i], content, 0);
+            regexFound |= regexMatches[i] != null;
+        }
+        int[] literalMatch = literals == null ? null : literals.find(content, 0);
+        char[] text = ipv4 == null ? null : content.toCharArray();
+        int[] ipv4Match = text == null ? null : new int[Ipv4Scanner.MATCH_SIZE];
+        boolean ipv4Found = text != null && ipv4.find(text, 0, text.length, ipv4Match);
+        StringBuilder output = null;
+        int last = 0;
+        while (regexFound || literalMatch != null || ipv4Found) {
+            int[] match = null;
+            int rank = 0;
+            for (int[] regexMatch : regexMatches) {
+                if (regexMatch != null && precedes(regexMatch[0], ranks.get(regexMatch[2]), match, rank)) {
+                    match = regexMatch;
+                    rank = ranks.get(regexMatch[2]);
+                }
+            }
+            if (literalMatch != null && precedes(literalMatch[0], literalRank, match, rank)) {
+                match = literalMatch;
+                rank = literalRank;
+            }
+            if (ipv4Found && precedes(ipv4Match[0], ipv4Rank, match, rank)) {
+                match = ipv4Match;
+            }
+
+            if (output == null) {
+                output = new StringBuilder(content.length() + 64);
+            }
+            output.append(content, last, match[0]);
+            ScrubStats.Rule rule;
+            if (match == ipv4Match) {
+                ipv4.appendReplacement(output, match);
+                rule = ipv4Rule;
+            } else if (match == literalMatch) {
+                output.append(literals.replacement(match));
+                rule = literalRule;
+            } else {
+                output.append(generators.get(match[2]).generate(content.substring(match[0], match[1])));
+                rule = rules.get(match[2]);
+            }
+            if (rule != null) {
+                rule.hit(match[1] - match[0]);
+            }
+            last = match[1];
+
+            // Whichever match was used or overlapped by it has to be looked for again
+            regexFound = false;
+            for (int i = 0; i < regexMatches.length; i++) {
+                if (regexMatches[i] != null && regexMatches[i][0] < last) {
+                    regexMatches[i] = nextRegexMatch(matchers[i], indexes[i], content, last);
+                }
+                regexFound |= regexMatches[i] != null;
+            }
+            if (literalMatch != null && literalMatch[0] < last) {
+                literalMatch = literals.find(content, last);
+            }
+            if (ipv4Found && ipv4Match[0] < last) {
+                ipv4Found = ipv4.find(text, last, text.length, ipv4Match);
+            }
+        }
+
+        if (output == null) {
+            return content;
+        }
+        return output.append(content, last, content.length()).toString();
+    }
+
+    // Times every source on its own over the content, for the estimates in the stats
+    private void sample(String content) {
+        for (int i = 0; i < patterns.size(); i++) {
+            long start = System.nanoTime();
+            Matcher matcher = patterns.get(i).matcher(content);
+            while (matcher.find()) {
+                // only the time taken to find every match is of interest
+            }
+            rules.get(i).sampled(System.nanoTime() - start, content.length());
+        }
+        if (literals != null) {
+            long start = System.nanoTime();
+            int[] match = literals.find(content, 0);
+            while (match != null) {
+                match = literals.find(content, match[1]);
+            }
+            literalRule.sampled(System.nanoTime() - start, content.length());
+        }
+        if (ipv4 != null) {
+            long start = System.nanoTime();
+            char[] text = content.toCharArray();
+            int[] match = new int[Ipv4Scanner.MATCH_SIZE];
+            int from = 0;
+            while (ipv4.find(text, from, text.length, match)) {
+                from = match[1];
+            }
+            ipv4Rule.sampled(System.nanoTime() - start, content.length());
+        }
+    }
+
+    private static boolean precedes(int start, int rank, int[] current, int currentRank) {
+        return current == null || start < current[0] || (start == current[0] && rank < currentRank);
+    }
+
+    private Pattern combinedPattern() {
+        Pattern compiled = pattern;
+        if (compiled == null && combined.length() > 0) {
+            // Racing threads compile the same pattern, either one will do
+            compiled = Pattern.compile(combined.toString());
+            pattern = compiled;
+        }
+        return compiled;
+    }
+
+    // index is the pattern a separate matcher searches for, or -1 for the combined one
+    private int[] nextRegexMatch(Matcher matcher, int index, String content, int from) {
+        if (matcher == null) {
+            return null;
+        }
+        int position = from;
+        while (position <= content.length() && matcher.find(position)) {
+            if (matcher.end() > matcher.start()) {
+                return new int[]{matcher.start(), matcher.end(), index < 0 ? matchedIndex(matcher) : index};
+            }
+            position = matcher.start() + 1;
+        }
+        return null;
+    }
+
+    private int matchedIndex(Matcher matcher) {
+        for (int i = 0; i < groups.size(); i++) {
+            if (groups.get(i) != -1 && matcher.start(groups.get(i)) != -1) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Match without a matching group: " + matcher.group());
+    }
+}
@@ -15,74 +15,147 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.IntStream;
 
 public class ScrubProcessor {
 
     private static final Logger logger = LogManager.getLogger(ScrubProcessor.class);
 
-    private static Map<String, Object> scrubConfig;
+    // Characters read per chunk when scrubbing a stream
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    // Everything read from the configuration and the cluster is fixed once the processor
+    // is constructed, so one instance can be shared by any number of threads and several
+    // instances can scrub different bundles side by side.
+    private final int[] ipv4 = new int[256];
+    private final Ipv4Scanner ipv4Scanner = new Ipv4Scanner(ipv4);
+    private final TokenGenerator tokenGenerator;
+    private final TokenDictionary dictionary;
+    private final Set<String> autoScrub;
+    private final List<ScrubTokenEntry> tokens;
+    private final Map<String, String> clusterInfoCache;
+    private final LiteralReplacer clusterArtifacts;
+    private final ScrubRuleSet removeRules;
+    private final ScrubRuleSet excludeRules;
+    private final ScrubRuleSet jsonRules;
+    private final JsonScrubber jsonScrubber;
+
+    // Replacements handed out so far, so a value is replaced the same way everywhere in the bundle
+    private final Map<String, String> tokenCache = new ConcurrentHashMap<>();
+    private final Map<String, String> ipv6TokenCache = new ConcurrentHashMap<>();
+    private final Map<String, String> macTokenCache = new ConcurrentHashMap<>();
+    // Combined matchers, one for each distinct set of tokens that apply to an entry
+    private final Map<List<ScrubTokenEntry>, ScrubMatcher> matchers = new ConcurrentHashMap<>();
+    private final ScrubStats stats;
+    // Tokens that apply to each entry name, after the include and exclude rules
+    private final Map<String, List<ScrubTokenEntry>> entryTokens = new ConcurrentHashMap<>();
+
+    // How each kind of value is replaced when it is not in the caches or the dictionary yet
+    private final TokenGenerator ipv6Gen = new TokenGenerator() {
+        @Override
+        public String generate(String input) {
+            String[] ipSegments = input.split(":");
+            int sz = ipSegments.length;
+            StringBuilder newIp = new StringBuilder();
+
+            for (int i = 0; i < sz; i++) {
+                newIp.append(generateToken(ipSegments[i]));
+                if (i < (sz - 1)) {
+                    newIp.append(":");
+                }
+            }
+            return newIp.toString();
+        }
+    };
+
+    private final TokenGenerator tokenGen = new TokenGenerator() {
+        @Override
+        public String generate(String input) {
+            return generateToken(input);
+        }
+    };
 
-    private static ConcurrentHashMap<Integer, Integer> ipv4 = new ConcurrentHashMap<>();
-    private static List<String> autoScrub = new ArrayList<>();
-    private static List<String> globalExclude = new ArrayList<>();
-    private static List<String> remove = new ArrayList<>();
-    private static List<ScrubTokenEntry> tokens = new ArrayList<>();
-    private static ConcurrentHashMap<String, String> clusterInfoCache = new ConcurrentHashMap<>();
-    private static ConcurrentHashMap<String, String> tokenCache = new ConcurrentHashMap<>();
-    private static ConcurrentHashMap<String, String> ipv4TokenCache = new ConcurrentHashMap<>();
-    private static ConcurrentHashMap<String, String> ipv6TokenCache = new ConcurrentHashMap<>();
-    private static ConcurrentHashMap<String, String> macTokenCache = new ConcurrentHashMap<>();
+    public ScrubProcessor() throws DiagnosticException {
+        this(null);
+    }
 
     public ScrubProcessor(String nodes) throws DiagnosticException {
-        this();
+        this(nodes, null);
+    }
 
-        if (StringUtils.isNotEmpty(nodes)) {
-            initAutoScrub(nodes);
-        }
+    /**
+     * @param dictionary replacements from earlier runs to reuse, and where new ones are recorded. Optional.
+     */
+    public ScrubProcessor(String nodes, TokenDictionary dictionary) throws DiagnosticException {
+        this(nodes, dictionary, false);
     }
 
-    public ScrubProcessor() throws DiagnosticException {
-        scrubConfig = JsonYamlUtils.readYamlFromClasspath("scrub.yml", false);
+    /**
+     * @param timeRules estimate the time spent on each rule, at the cost of matching sampled content again
+     */
+    public ScrubProcessor(String nodes, TokenDictionary dictionary, boolean timeRules) throws DiagnosticException {
+        this.dictionary = dictionary;
+        this.stats = new ScrubStats(timeRules);
+        Map<String, Object> scrubConfig = JsonYamlUtils.readYamlFromClasspath("scrub.yml", false);
 
-        Collection auto = (Collection) scrubConfig.get("auto-scrub");
+        Collection<String> auto = (Collection<String>) scrubConfig.get("auto-scrub");
         if (auto != null) {
-            autoScrub.addAll(auto);
+            autoScrub = Set.copyOf(auto);
         } else {
+            autoScrub = Set.of();
             logger.info(Constants.CONSOLE, "All autoscrub tokens disabled. Bypassing autoscrub processing");
         }
 
-        Collection<String> removeTokens = (Collection) scrubConfig.get("remove");
-        if (removeTokens != null) {
-            remove.addAll(removeTokens);
-        }
+        Collection<String> removeTokens = (Collection<String>) scrubConfig.get("remove");
+        removeRules = new ScrubRuleSet(removeTokens != null ? List.copyOf(removeTokens) : List.of());
 
-        Collection<String> exclude = (Collection) scrubConfig.get("global-exclude");
-        if (exclude != null) {
-            globalExclude.addAll(exclude);
+        Collection<String> exclude = (Collection<String>) scrubConfig.get("global-exclude");
+        excludeRules = new ScrubRuleSet(exclude != null ? List.copyOf(exclude) : List.of());
+
+        Map<String, Object> json = (Map<String, Object>) scrubConfig.get("json");
+        Collection<String> jsonEntries = json != null ? (Collection<String>) json.get("entries") : null;
+        Collection<String> jsonPaths = json != null ? (Collection<String>) json.get("paths") : null;
+        jsonRules = new ScrubRuleSet(jsonEntries != null ? List.copyOf(jsonEntries) : List.of());
+        jsonScrubber = new JsonScrubber(jsonPaths != null ? List.copyOf(jsonPaths) : List.of());
+
+        if (dictionary != null) {
+            System.arraycopy(dictionary.getIpv4Octets(), 0, ipv4, 0, 256);
+        } else {
+            System.arraycopy(randomIpv4Octets(), 0, ipv4, 0, 256);
         }
+        tokenGenerator = initTokenGenerator(scrubConfig);
+        tokens = initScrubTokens(scrubConfig);
 
-        initIpv4();
-        initScrubTokens();
+        Map<String, String> clusterInfo = new HashMap<>();
+        if (StringUtils.isNotEmpty(nodes)) {
+            initAutoScrub(nodes, clusterInfo);
+        }
+        clusterInfoCache = Collections.unmodifiableMap(clusterInfo);
+        clusterArtifacts = new LiteralReplacer(clusterInfoCache);
     }
 
-    private void initAutoScrub(String nodes) {
+    private void initAutoScrub(String nodes, Map<String, String> clusterInfo) {
         JsonNode nodesInfo = JsonYamlUtils.createJsonNodeFromString(nodes);
         if (autoScrub.contains("clusterName")) {
             String clusterName = nodesInfo.path("cluster_name").asText();
-            clusterInfoCache.put(clusterName, generateToken(clusterName));
+            clusterInfo.put(clusterName, replacement(tokenCache, TokenDictionary.TOKEN, clusterName, tokenGen));
         }
 
         if (autoScrub.contains("nodeId") || autoScrub.contains("nodeName")) {
@@ -91,234 +164,289 @@ public class ScrubProcessor {
             while (iterNode.hasNext()) {
                 Map.Entry<String, JsonNode> n = iterNode.next();
                 if (autoScrub.contains("nodeId")) {
-                    clusterInfoCache.put(n.getKey(), generateToken(n.getKey()));
+                    clusterInfo.put(n.getKey(), replacement(tokenCache, TokenDictionary.TOKEN, n.getKey(), tokenGen));
                 }
                 if (autoScrub.contains("nodeName")) {
                     JsonNode node = n.getValue();
                     String nodeName = node.path("name").asText();
-                    clusterInfoCache.put(nodeName, generateToken(nodeName));
+                    clusterInfo.put(nodeName, replacement(tokenCache, TokenDictionary.TOKEN, nodeName, tokenGen));
                 }
             }
         }
     }
 
-    private void initScrubTokens() {
+    private List<ScrubTokenEntry> initScrubTokens(Map<String, Object> scrubConfig) {
 
         List<Map<String, Object>> configTokens = (List<Map<String, Object>>) scrubConfig.get("tokens");
 
         if (configTokens == null) {
-            return;
+            return List.of();
         }
 
+        List<ScrubTokenEntry> entries = new ArrayList<>();
         for (Map<String, Object> t : configTokens) {
             String tkn = (String) t.get("token");
             List<String> inc = (List<String>) ObjectUtils.defaultIfNull(t.get("include"), new ArrayList<String>());
             List<String> exc = (List<String>) ObjectUtils.defaultIfNull(t.get("exclude"), new ArrayList<String>());
-            tokens.add(new ScrubTokenEntry(tkn, inc, exc));
+            entries.add(new ScrubTokenEntry(tkn, inc, exc));
         }
-        if (tokens.isEmpty()) {
+        if (entries.isEmpty()) {
             logger.info(Constants.CONSOLE, "Scrubbing was enabled but no tokens were defined. Bypassing custom token processing.");
         }
 
-        logger.debug(tokens);
+        logger.debug(entries);
+        return List.copyOf(entries);
     }
 
-    private void initIpv4() {
-        Random random = new Random();
-        IntStream intStream = random.ints(300, 556).distinct().limit(256);
+    private TokenGenerator initTokenGenerator(Map<String, Object> scrubConfig) throws DiagnosticException {
+        Map<String, Object> settings = (Map<String, Object>) scrubConfig.get("token-generator");
+        if (settings == null) {
+            return new UuidTokenGenerator();
+        }
 
-        int[] vals = intStream.toArray();
-        for (int i = 0; i < 256; i++) {
-            ipv4.put(i, vals[i]);
+        String type = (String) ObjectUtils.defaultIfNull(settings.get("type"), "uuid");
+        switch (type) {
+            case "hmac":
+                return HmacTokenGenerator.fromKeyFile((String) settings.get("key-file"));
+            case "uuid":
+                return new UuidTokenGenerator();
+            default:
+                throw new DiagnosticException("Unknown token-generator type in scrub.yml: " + type);
         }
     }
 
-    public boolean isMatch(List<String> regexs, String entry) {
-        for (String regx : regexs) {
-            if (entry.matches(regx)) {
-                return true;
-            }
-        }
-        return false;
+    // Each octet maps to a distinct value between 300 and 555, so a replaced address is never a valid one
+    static int[] randomIpv4Octets() {
+        Random random = new Random();
+        IntStream intStream = random.ints(300, 556).distinct().limit(256);
+        return intStream.toArray();
     }
 
     public boolean isRemove(String entry) {
-        return isMatch(remove, entry);
+        return removeRules.matches(entry);
     }
 
     public boolean isExclude(String entry) {
-        return isMatch(globalExclude, entry);
+        return excludeRules.matches(entry);
+    }
+
+    /**
+     * @return whether the entry should be scrubbed with {@link #processJson(Reader, Writer, String)}
+     */
+    public boolean isJson(String entry) {
+        return jsonRules.matches(entry);
     }
 
     public String generateToken(String token) {
+        return tokenGenerator.generate(token);
+    }
 
-        if (StringUtils.isEmpty(token)) {
-            return "";
-        }
+    /**
+     * Applies the include and exclude rules of the configured tokens to an entry.
+     * Done once per entry so that content processed in chunks is only checked once.
+     */
+    public List<ScrubTokenEntry> tokensFor(String entry) {
+        return entryTokens.computeIfAbsent(entry, this::selectTokens);
+    }
 
-        StringBuilder newToken = new StringBuilder();
-        int len = token.length();
-        if(len > 64){
-            len = 64;
-        }
-        int passes = 1;
-        if (len > 32) {
-            passes = (len / 32) + 1;
-        }
+    private List<ScrubTokenEntry> selectTokens(String entry) {
+        List<ScrubTokenEntry> applicable = new ArrayList<>();
+        for (ScrubTokenEntry token : tokens) {
+            if (!token.includeRules.isEmpty()) {
+                if (!token.includeRules.matches(entry)) {
+                    continue;
+                }
+                logger.info(Constants.CONSOLE, "Include rule applied for: {}.", entry);
+            }
 
-        for (int i = 0; i < passes; i++) {
-            newToken.append(
-                    UUID.nameUUIDFromBytes(token.getBytes()).toString()
-                            .replaceAll("-", "")
-            );
+            if (token.excludeRules.matches(entry)) {
+                logger.info(Constants.CONSOLE, "Exclude rule applied for: {}.", entry);
+                continue;
+            }
+            applicable.add(token);
         }
+        return applicable;
+    }
 
-        return newToken.toString().substring(0, len);
+    /**
+     * Sanitizes content read from the reader and writes it out as it goes, so memory use
+     * depends on the chunk size rather than the size of the file. Each chunk is cut
+     * at the last line break, and the partial line that follows it is carried over to
+     * the next chunk, so a value is never split between two chunks. Lines longer than
+     * the limit are cut at the last JSON delimiter or whitespace instead.
+     */
+    public void processStream(Reader reader, Writer writer, String entry) throws IOException {
+        processStream(reader, writer, entry, null, CHUNK_SIZE);
+    }
 
+    /**
+     * As above, with the chunks of a large entry scrubbed in parallel on the pool and
+     * written out in their original order. At most as many chunks as the pool has
+     * workers are in flight for one entry, so a single huge log can keep every worker
+     * busy without the whole file being held in memory.
+     */
+    public void processStream(Reader reader, Writer writer, String entry, ForkJoinPool pool) throws IOException {
+        processStream(reader, writer, entry, pool, CHUNK_SIZE);
     }
 
-    public String processContentWithTokens(String content, String entry) {
-        for (ScrubTokenEntry token : tokens) {
-            if (!token.include.isEmpty()) {
-                boolean filtered = true;
-                for (String inc : token.include) {
-                    if (entry.matches(inc)) {
-                        logger.info(Constants.CONSOLE, "Include rule applied for: {}.", entry);
-                        filtered = false;
-                        break;
-                    }
-                }
-                if (filtered) {
+    void processStream(Reader reader, Writer writer, String entry, int chunkSize) throws IOException {
+        processStream(reader, writer, entry, null, chunkSize);
+    }
+
+    void processStream(Reader reader, Writer writer, String entry, ForkJoinPool pool, int chunkSize) throws IOException {
+        List<ScrubTokenEntry> applicable = tokensFor(entry);
+        Segments segments = new Segments(writer, applicable, pool);
+        int maxPending = chunkSize * 4;
+        char[] buffer = new char[chunkSize];
+        StringBuilder pending = new StringBuilder(chunkSize * 2);
+
+        try {
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                pending.append(buffer, 0, read);
+                if (pending.length() < chunkSize) {
                     continue;
                 }
-            }
 
-            if (!token.exclude.isEmpty()) {
-                boolean filtered = false;
-                for (String exc : token.exclude) {
-                    if (entry.matches(exc)) {
-                        logger.info(Constants.CONSOLE, "Exclude rule applied for: {}.", entry);
-                        filtered = true;
-                        break;
+                int cut = pending.lastIndexOf("\n") + 1;
+                if (cut == 0 && pending.length() >= maxPending) {
+                    cut = lastDelimiter(pending) + 1;
+                    if (cut == 0) {
+                        cut = pending.length();
                     }
                 }
-                if (filtered) {
-                    continue;
+                if (cut > 0) {
+                    segments.add(pending.substring(0, cut));
+                    pending.delete(0, cut);
                 }
             }
-            Matcher matcher = token.pattern.matcher(content);
-            Set<String> tokenHits = new HashSet<>();
-            while(matcher.find()){
-                tokenHits.add(matcher.group());
-            }
-            for(String hit: tokenHits){
-                String replacement = tokenCache.computeIfAbsent(hit, k -> generateToken(k));
-                logger.debug("Entry: {} - Pattern:{}  Found:{}   Replacement: {}", entry, token.pattern.toString(), hit, replacement);
-                content = content.replaceAll(hit, replacement );
+
+            if (pending.length() > 0) {
+                segments.add(pending.toString());
             }
+            segments.finish();
+        } finally {
+            segments.cancel();
         }
-        return content;
+        writer.flush();
     }
 
-    public String processMacddresses(String content) {
-        return processTokens(content, macTokenCache, Constants.MacAddrRegex, tokenGen);
-    }
+    // Chunks of one entry that are being scrubbed, oldest first, so they are written in order
+    private class Segments {
+        private final Writer writer;
+        private final List<ScrubTokenEntry> applicable;
+        private final ForkJoinPool pool;
+        private final Deque<ForkJoinTask<String>> inFlight = new ArrayDeque<>();
+
+        Segments(Writer writer, List<ScrubTokenEntry> applicable, ForkJoinPool pool) {
+            this.writer = writer;
+            this.applicable = applicable;
+            this.pool = pool;
+        }
 
-    private String processIpv4Addresses(String content) {
-        return processTokens(content, ipv4TokenCache, Constants.IPv4Regex, ipv4Gen);
-    }
+        void add(String segment) throws IOException {
+            if (pool == null) {
+                writer.write(processContent(segment, applicable));
+                return;
+            }
+            while (inFlight.size() >= pool.getParallelism()) {
+                writer.write(inFlight.poll().join());
+            }
+            inFlight.add(pool.submit(() -> processContent(segment, applicable)));
+            while (!inFlight.isEmpty() && inFlight.peek().isDone()) {
+                writer.write(inFlight.poll().join());
+            }
+        }
 
+        // A worker waiting here runs queued chunks itself rather than sitting idle
+        void finish() throws IOException {
+            while (!inFlight.isEmpty()) {
+                writer.write(inFlight.poll().join());
+            }
+        }
 
-    private String processIpv6Addresses(String content) {
-        return processTokens(content, ipv6TokenCache, Constants.IPv6Regex, ipv6Gen);
+        void cancel() {
+            inFlight.forEach(task -> task.cancel(false));
+            inFlight.clear();
+        }
     }
 
-    private String processTokens(String content, Map<String, String> cache, String regexString, TokenGenerator generator){
-        Pattern pattern = Pattern.compile(regexString);
-        Matcher matcher = pattern.matcher(content);
-
-        Set<String> tokenHits = new HashSet<>();
-        while(matcher.find()){
-            tokenHits.add(matcher.group());
-        }
-        for(String token: tokenHits){
-            String replacement = cache.computeIfAbsent(token, k -> generator.generate(k));
-            content = content.replaceAll(token, replacement );
+    /**
+     * Sanitizes JSON value by value, applying the same replacements as processContent
+     * to each field name and string value, and leaving the rest of the document as it
+     * was. String values under one of the configured json paths are replaced even when
+     * nothing in them matches. If the content turns out not to be JSON, whatever is
+     * left is processed as text.
+     */
+    public void processJson(Reader reader, Writer writer, String entry) throws IOException {
+        List<ScrubTokenEntry> applicable = tokensFor(entry);
+        ScrubMatcher matcher = matchers.computeIfAbsent(applicable, this::buildMatcher);
+        Reader rest = jsonScrubber.scrub(reader, writer, matcher::replace, value -> {
+            String replaced = matcher.replace(value);
+            return replaced.equals(value) ? replacement(tokenCache, TokenDictionary.TOKEN, value, tokenGen) : replaced;
+        });
+        if (rest != null) {
+            processStream(rest, writer, entry);
         }
-
-        return content;
     }
 
+    /**
+     * Hits and time spent per rule and per entry, gathered while scrubbing.
+     */
+    public ScrubStats getStats() {
+        return stats;
+    }
 
-    private String processClusterArtifacts(String input) {
-        String content = input;
-        for (Map.Entry<String, String> entry : clusterInfoCache.entrySet()) {
-            content = content.replaceAll(entry.getKey(), entry.getValue());
-        }
+    /**
+     * Replaces IP and MAC addresses, cluster artifacts and the tokens that apply to the
+     * entry in a single scan of the content, rather than a pass for every pattern and hit.
+     */
+    public String processContent(String content, String entry) {
+        return processContent(content, tokensFor(entry));
+    }
 
-        return content;
+    public String processContent(String content, List<ScrubTokenEntry> applicable) {
+        return matchers.computeIfAbsent(applicable, this::buildMatcher).replace(content);
     }
 
-    public String processAutoscrub(String input) {
-        String content = input;
+    private ScrubMatcher buildMatcher(List<ScrubTokenEntry> applicable) {
+        ScrubMatcher matcher = new ScrubMatcher(stats);
         if (autoScrub.contains("ipv4")) {
-            content = processIpv4Addresses(content);
+            matcher.addIpv4("ipv4", ipv4Scanner);
         }
         if (autoScrub.contains("ipv6")) {
-            content = processIpv6Addresses(content);
+            matcher.add("ipv6", Constants.IPv6Regex, hit -> replacement(ipv6TokenCache, TokenDictionary.IPV6, hit, ipv6Gen));
         }
         if (autoScrub.contains("mac")) {
-            content = processMacddresses(content);
+            matcher.add("mac", Constants.MacAddrRegex, hit -> replacement(macTokenCache, TokenDictionary.MAC, hit, tokenGen));
         }
-        content = processClusterArtifacts(content);
 
-        return content;
+        matcher.addLiterals("clusterArtifacts", clusterArtifacts);
 
+        for (ScrubTokenEntry token : applicable) {
+            matcher.add(token.token, hit -> replacement(tokenCache, TokenDictionary.TOKEN, hit, tokenGen));
+        }
+        return matcher;
     }
 
-    private TokenGenerator ipv4Gen = new TokenGenerator() {
-        @Override
-        public String generate(String input) {
-            StringBuffer newIp = new StringBuffer();
-            String[] ipSegments = input.split("\\.");
-            for (int i = 0; i < 4; i++) {
-                int set = Integer.parseInt(ipSegments[i]);
-                if (!ipv4.containsKey(set)) {
-                    logger.info("Error converting ip segment {} from address: {}", Integer.toString(set));
-                    throw new RuntimeException("Error scrubbing IP Addresses");
-                }
-                int replace = ipv4.get(set);
-                newIp.append(replace);
-                if (i < 3) {
-                    newIp.append(".");
-                }
+    private static int lastDelimiter(CharSequence content) {
+        int whitespace = -1;
+        for (int i = content.length() - 1; i >= 0; i--) {
+            char c = content.charAt(i);
+            if (c == ',' || c == '{' || c == '}' || c == '[' || c == ']' || c == '"') {
+                return i;
             }
-            return newIp.toString();
-        }
-    };
-
-    private TokenGenerator ipv6Gen = new TokenGenerator() {
-        @Override
-        public String generate(String input) {
-            String[] ipSegments = input.split(":");
-            int sz = ipSegments.length;
-            StringBuilder newIp = new StringBuilder();
-
-            for (int i = 0; i < sz; i++) {
-                newIp.append(generateToken(ipSegments[i]));
-                if (i < (sz - 1)) {
-                    newIp.append(":");
-                }
+            if (whitespace < 0 && Character.isWhitespace(c)) {
+                whitespace = i;
             }
-            return newIp.toString();
         }
-    };
-
-    private TokenGenerator tokenGen = new TokenGenerator() {
-        @Override
-        public String generate(String input) {
-            return generateToken(input);
-        }
-    };
+        return whitespace;
+    }
 
+    // Replacements are looked up in the dictionary before a new one is generated
+    private String replacement(Map<String, String> cache, byte type, String value, TokenGenerator generator) {
+        return cache.computeIfAbsent(value, k -> dictionary == null
+                ? generator.generate(k)
+                : dictionary.computeIfAbsent(type, k, generator::generate));
+    }
 }
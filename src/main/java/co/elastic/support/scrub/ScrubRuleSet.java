@@ -0,0 +1,64 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.scrub;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * A list of entry name rules from scrub.yml, compiled once into a single pattern.
+ * An entry matches if its whole name matches any one of the rules, the same as
+ * calling String.matches with each of them. The result for each entry name is
+ * kept, since the same names are checked repeatedly.
+ * <p>
+ * A gzipped entry keeps its .gz suffix, but also matches the rules for its name
+ * without it, which is the name rules written for earlier versions were matched
+ * against.
+ */
+public class ScrubRuleSet {
+
+    private static final String GZ = ".gz";
+
+    private final List<String> rules;
+    private final Pattern pattern;
+    private final Map<String, Boolean> decisions = new ConcurrentHashMap<>();
+
+    public ScrubRuleSet(List<String> rules) {
+        this.rules = List.copyOf(rules);
+        if (rules.isEmpty()) {
+            pattern = null;
+        } else {
+            StringBuilder combined = new StringBuilder();
+            for (String rule : rules) {
+                if (combined.length() > 0) {
+                    combined.append('|');
+                }
+                combined.append("(?:").append(rule).append(')');
+            }
+            pattern = Pattern.compile(combined.toString());
+        }
+    }
+
+    public boolean isEmpty() {
+        return pattern == null;
+    }
+
+    public boolean matches(String entry) {
+        if (pattern == null) {
+            return false;
+        }
+        return decisions.computeIfAbsent(entry, e -> pattern.matcher(e).matches()
+                || (e.endsWith(GZ) && pattern.matcher(e.substring(0, e.length() - GZ.length())).matches()));
+    }
+
+    @Override
+    public String toString() {
+        return rules.toString();
+    }
+}
@@ -10,10 +10,14 @@ import co.elastic.support.BaseService;
 import co.elastic.support.Constants;
 import co.elastic.support.diagnostics.DiagnosticException;
 import co.elastic.support.util.FileTaskEntry;
+import co.elastic.support.util.OutputSink;
+import co.elastic.support.util.ParallelZipOutputSink;
 import co.elastic.support.util.SystemProperties;
 import co.elastic.support.util.SystemUtils;
 import co.elastic.support.util.TaskEntry;
 import co.elastic.support.util.ZipFileTaskEntry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.io.FileUtils;
@@ -24,11 +28,12 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 
 public class ScrubService extends BaseService {
@@ -36,7 +41,9 @@ public class ScrubService extends BaseService {
     private final Logger logger = LogManager.getLogger(ScrubService.class);
 
     public File exec(ScrubInputs inputs) throws DiagnosticException {
-        ExecutorService executorService = null;
+        ForkJoinPool executorService = null;
+        TokenDictionary dictionary = null;
+        ParallelZipOutputSink archiveSink = null;
         String scrubDir = "";
 
         try {
@@ -46,7 +53,8 @@ public class ScrubService extends BaseService {
 
             // Redirect the log file output to the scrubbed output target location.
             createFileAppender(inputs.outputDir, "scrubber.log");
-            executorService = Executors.newFixedThreadPool(inputs.workers);
+            // Work stealing, so workers that finish the small files pick up chunks of the large ones
+            executorService = new ForkJoinPool(inputs.workers);
             logger.info(Constants.CONSOLE, "Threadpool configured with {} workers.", inputs.workers);
 
             // Get a collection of entries to send parcel out to the task collection
@@ -56,6 +64,8 @@ public class ScrubService extends BaseService {
                 case "zip":
                     entriesToScrub = collectZipEntries(inputs.scrub, scrubDir);
                     nodeString = getNodeInfoFromZip(inputs.scrub);
+                    // Scrubbed entries go straight into the new archive rather than through scrubDir
+                    archiveSink = new ParallelZipOutputSink(scrubDir, SystemProperties.getFileDateString());
                     break;
                 case "dir":
                     entriesToScrub = collectDirEntries(inputs.scrub, scrubDir);
@@ -67,16 +77,20 @@ public class ScrubService extends BaseService {
                     entriesToScrub = collectDirEntries(inputs.scrub, rootDir);
             }
 
-            ScrubProcessor processor;
-            if (StringUtils.isNotEmpty(nodeString)) {
-                processor = new ScrubProcessor(nodeString);
-            } else {
-                processor = new ScrubProcessor();
+            if (StringUtils.isNotEmpty(inputs.dictionary)) {
+                dictionary = TokenDictionary.open(inputs.dictionary);
+                logger.info(Constants.CONSOLE, "Using token dictionary {} with {} entries.", inputs.dictionary, dictionary.size());
             }
 
+            ScrubProcessor processor = new ScrubProcessor(nodeString, dictionary, inputs.ruleStats);
+
             ArrayList<ScrubTask> tasks = new ArrayList<>();
             for (TaskEntry entry : entriesToScrub) {
-                tasks.add(new ScrubTask(processor, entry, scrubDir));
+                if (archiveSink != null) {
+                    tasks.add(new ScrubTask(processor, entry, archiveSink, executorService));
+                } else {
+                    tasks.add(new ScrubTask(processor, entry, scrubDir, executorService));
+                }
             }
 
             List<Future<String>> futures = executorService.invokeAll(tasks);
@@ -88,17 +102,72 @@ public class ScrubService extends BaseService {
                 }
             });
 
+            writeStats(processor.getStats(), archiveSink, scrubDir);
+
+            if (archiveSink != null) {
+                logger.info(Constants.CONSOLE, "Archiving diagnostic results.");
+                File archive = archiveSink.finish();
+                archiveSink = null;
+                return archive;
+            }
+
             // Finish up by zipping it.
             return createArchive(scrubDir);
         } catch (Throwable throwable) {
             throw new DiagnosticException("Could not scrub archive", throwable);
         } finally {
-            executorService.shutdown();
+            if (executorService != null) {
+                executorService.shutdown();
+            }
+            if (archiveSink != null) {
+                try {
+                    archiveSink.close();
+                } catch (IOException e) {
+                    logger.error(Constants.CONSOLE, "Could not close scrubbed archive", e);
+                }
+            }
+            if (dictionary != null) {
+                try {
+                    dictionary.close();
+                } catch (IOException e) {
+                    logger.error(Constants.CONSOLE, "Could not close token dictionary", e);
+                }
+            }
             closeLogs();
             SystemUtils.nukeDirectory(scrubDir);
         }
     }
 
+    // Goes into the scrubbed archive alongside the entries, with a summary on the console
+    private void writeStats(ScrubStats stats, OutputSink sink, String scrubDir) {
+        try {
+            ObjectMapper mapper = new ObjectMapper();
+            mapper.enable(SerializationFeature.INDENT_OUTPUT);
+            if (sink != null) {
+                try (OutputStream out = sink.newOutput("scrub-stats.json")) {
+                    mapper.writeValue(out, stats.toMap());
+                }
+            } else {
+                mapper.writeValue(new File(scrubDir + SystemProperties.fileSeparator + "scrub-stats.json"), stats.toMap());
+            }
+        } catch (IOException e) {
+            logger.error(Constants.CONSOLE, "Could not write scrub stats", e);
+        }
+
+        Map<?, ?> totals = (Map<?, ?>) stats.toMap().get("totals");
+        logger.info(Constants.CONSOLE, "Scrubbed {} entries, {} bytes in {} ms ({} MB/s).",
+                totals.get("entries"), totals.get("bytes"), totals.get("millis"), totals.get("mbPerSecond"));
+        if (stats.isTimeRules()) {
+            stats.getRules().stream().limit(5).forEach(rule ->
+                    logger.info(Constants.CONSOLE, "  rule {}: {} hits, ~{} ms (estimate)", rule.getName(), rule.getHits(), rule.getEstimatedMillis()));
+        } else {
+            stats.getRules().stream().limit(5).forEach(rule ->
+                    logger.info(Constants.CONSOLE, "  rule {}: {} hits", rule.getName(), rule.getHits()));
+        }
+        stats.getEntries().stream().limit(5).forEach(entry ->
+                logger.info(Constants.CONSOLE, "  entry {}: {} bytes, {} ms", entry.getName(), entry.getBytes(), entry.getMillis()));
+    }
+
     public List<TaskEntry> collectDirEntries(String filename, String scrubDir) {
 
         List<TaskEntry> entries = new ArrayList<>();
@@ -0,0 +1,187 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.scrub;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters collected while scrubbing, written to scrub-stats.json in the output
+ * archive so the rules in scrub.yml can be tuned for large bundles.
+ * <p>
+ * All rules are matched in one pass, so the time a pass takes cannot be split
+ * between them directly. When rule timings are asked for, one call in every
+ * {@link #SAMPLE_INTERVAL} also runs each rule on its own over the same content,
+ * and the time per character measured that way is scaled up to everything that
+ * was scanned. That repeats the matching for each rule on the sampled content,
+ * so it is off unless asked for, and the result is only an estimate.
+ */
+public class ScrubStats {
+
+    static final int SAMPLE_INTERVAL = 64;
+
+    private final Map<String, Rule> rules = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry> entries = new ConcurrentLinkedQueue<>();
+    private final LongAdder scanned = new LongAdder();
+    private final AtomicLong calls = new AtomicLong();
+    private final long started = System.nanoTime();
+    private final boolean timeRules;
+
+    public ScrubStats() {
+        this(false);
+    }
+
+    /**
+     * @param timeRules estimate the time spent on each rule by sampling
+     */
+    public ScrubStats(boolean timeRules) {
+        this.timeRules = timeRules;
+    }
+
+    public boolean isTimeRules() {
+        return timeRules;
+    }
+
+    public Rule rule(String name) {
+        return rules.computeIfAbsent(name, Rule::new);
+    }
+
+    /**
+     * Counts content handed to a matcher, and returns whether the rules should be timed on it.
+     */
+    boolean scanned(int chars) {
+        scanned.add(chars);
+        return timeRules && calls.getAndIncrement() % SAMPLE_INTERVAL == 0;
+    }
+
+    public void recordEntry(String name, String result, long bytes, long nanos) {
+        entries.add(new Entry(name, result, bytes, nanos / 1_000_000));
+    }
+
+    public long getScannedChars() {
+        return scanned.sum();
+    }
+
+    public List<Rule> getRules() {
+        List<Rule> sorted = new ArrayList<>(rules.values());
+        sorted.sort(Comparator.comparingLong(Rule::getEstimatedMillis).reversed()
+                .thenComparing(Comparator.comparingLong(Rule::getHits).reversed()));
+        return sorted;
+    }
+
+    public List<Entry> getEntries() {
+        List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparingLong(Entry::getMillis).reversed());
+        return sorted;
+    }
+
+    public Map<String, Object> toMap() {
+        long bytes = entries.stream().mapToLong(Entry::getBytes).sum();
+        long millis = (System.nanoTime() - started) / 1_000_000;
+
+        Map<String, Object> totals = new LinkedHashMap<>();
+        totals.put("entries", entries.size());
+        totals.put("bytes", bytes);
+        totals.put("scannedChars", getScannedChars());
+        totals.put("millis", millis);
+        totals.put("mbPerSecond", millis > 0 ? Math.round(bytes * 1000.0 / millis / 1024 / 1024 * 100) / 100.0 : 0);
+
+        List<Map<String, Object>> ruleStats = new ArrayList<>();
+        for (Rule rule : getRules()) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("rule", rule.getName());
+            stats.put("hits", rule.getHits());
+            stats.put("matchedChars", rule.getMatchedChars());
+            if (timeRules) {
+                stats.put("estimatedMillis", rule.getEstimatedMillis());
+            }
+            ruleStats.add(stats);
+        }
+
+        List<Map<String, Object>> entryStats = new ArrayList<>();
+        for (Entry entry : getEntries()) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("entry", entry.getName());
+            stats.put("result", entry.getResult());
+            stats.put("bytes", entry.getBytes());
+            stats.put("millis", entry.getMillis());
+            entryStats.add(stats);
+        }
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("totals", totals);
+        map.put("rules", ruleStats);
+        map.put("entries", entryStats);
+        return map;
+    }
+
+    public class Rule {
+        private final String name;
+        private final LongAdder hitCount = new LongAdder();
+        private final LongAdder matched = new LongAdder();
+        private final LongAdder sampledNanos = new LongAdder();
+        private final LongAdder sampledChars = new LongAdder();
+
+        Rule(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        void hit(int chars) {
+            hitCount.increment();
+            matched.add(chars);
+        }
+
+        void sampled(long nanos, int chars) {
+            sampledNanos.add(nanos);
+            sampledChars.add(chars);
+        }
+
+        public long getHits() {
+            return hitCount.sum();
+        }
+
+        public long getMatchedChars() {
+            return matched.sum();
+        }
+
+        public long getEstimatedMillis() {
+            long chars = sampledChars.sum();
+            if (chars == 0) {
+                return 0;
+            }
+            return Math.round((double) sampledNanos.sum() / chars * getScannedChars() / 1_000_000);
+        }
+    }
+
+    @Getter
+    public static class Entry {
+        private final String name;
+        private final String result;
+        private final long bytes;
+        private final long millis;
+
+        Entry(String name, String result, long bytes, long millis) {
+            this.name = name;
+            this.result = result;
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+    }
+}
@@ -7,59 +7,117 @@
 package co.elastic.support.scrub;
 
 import co.elastic.support.Constants;
+import co.elastic.support.util.OutputSink;
+import co.elastic.support.util.ParallelZipOutputSink;
 import co.elastic.support.util.SystemProperties;
 import co.elastic.support.util.TaskEntry;
+import co.elastic.support.util.ZipFileTaskEntry;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class ScrubTask implements Callable<String> {
 
     private static Logger logger = LogManager.getLogger(ScrubTask.class);
+
+    // What a gzipped entry has to be called once decompressed to be scrubbed as text, e.g. a rotated log
+    private static final Pattern GZIPPED_TEXT = Pattern.compile(".*\\.(log|txt|json)(\\.\\d+)?\\.gz");
     ScrubProcessor processor;
     TaskEntry entry;
     String dir;
+    ForkJoinPool pool;
+    OutputSink sink;
 
     public ScrubTask(ScrubProcessor processor, TaskEntry entry, String dir){
+        this(processor, entry, dir, null);
+    }
+
+    /**
+     * @param pool where the chunks of a large entry are scrubbed in parallel. Optional.
+     */
+    public ScrubTask(ScrubProcessor processor, TaskEntry entry, String dir, ForkJoinPool pool){
         this.entry = entry;
         this.processor = processor;
         this.dir = dir;
+        this.pool = pool;
+    }
+
+    /**
+     * Writes the scrubbed entry to the sink rather than to a directory.
+     */
+    public ScrubTask(ScrubProcessor processor, TaskEntry entry, OutputSink sink, ForkJoinPool pool){
+        this(processor, entry, (String) null, pool);
+        this.sink = sink;
     }
 
     @Override
     public String call() {
         String result;
+        long start = System.nanoTime();
+        long bytes = 0;
         try {
             logger.debug(entry.entryName() + " started");
 
             // If it's in remove we not only don't process it we don't write it to the scrubbed archive either
             if (processor.isRemove(entry.entryName())) {
                 logger.info(Constants.CONSOLE, "Removing entry: {}", entry.entryName());
+                processor.getStats().recordEntry(entry.entryName(), "removed", 0, System.nanoTime() - start);
                 return entry.entryName() + ":removed";
             }
 
-            String content = entry.content();
+            if (isGzippedBinary(entry.entryName())) {
+                logger.info(Constants.CONSOLE, "Removing gzipped entry that is not text: {}", entry.entryName());
+                processor.getStats().recordEntry(entry.entryName(), "removed", 0, System.nanoTime() - start);
+                return entry.entryName() + ":removed";
+            }
 
-            if (processor.isExclude(entry.entryName())) {
-                result = entry.entryName() + ":excluded";
+            if (processor.isExclude(entry.entryName()) && copyRaw()) {
                 logger.info(Constants.CONSOLE, "Excluded from sanitization: {}", entry.entryName());
-
-            } else {
-                content = processor.processAutoscrub(content);
-                content = processor.processContentWithTokens(content, entry.entryName());
-                result = entry.entryName() + ":sanitized";
-                logger.info(Constants.CONSOLE, "Processed entry: {}", entry.entryName());
-
+                processor.getStats().recordEntry(entry.entryName(), "excluded", 0, System.nanoTime() - start);
+                return entry.entryName() + ":excluded";
             }
 
-            String targetFileName = dir + SystemProperties.fileSeparator + entry.entryName();
-            FileUtils.writeStringToFile(new File(targetFileName), content, "UTF-8");
+            // Content is streamed through in chunks so large files never have to fit in memory.
+            String status;
+            OutputStream out = openOutput();
+            try (BoundedInputStream in = BoundedInputStream.builder().setInputStream(entry.stream()).get()) {
+                status = scrub(in, out, entry.entryName());
+                out.close();
+                bytes = in.getCount();
+            } catch (Exception e) {
+                // What was written so far may still hold unscrubbed content, so none of it is kept
+                discard(out);
+                throw e;
+            }
+            processor.getStats().recordEntry(entry.entryName(), status, bytes, System.nanoTime() - start);
+            result = entry.entryName() + ":" + status;
 
         } catch (Exception e) {
             logger.error("Error occurrred processing: {}", entry.entryName(), e);
+            processor.getStats().recordEntry(entry.entryName(), "error", bytes, System.nanoTime() - start);
             result = "error:" + entry.entryName() + " " + e.getMessage();
         }
 
@@ -69,6 +127,106 @@ public class ScrubTask implements Callable<String> {
 
     }
 
+    /**
+     * Gzipped text is decompressed, scrubbed and compressed again on the fly, and a
+     * nested zip is rewritten entry by entry, so neither has to be unpacked to disk or
+     * held in memory. Neither stream is closed.
+     */
+    private String scrub(InputStream in, OutputStream out, String name) throws IOException {
+        if (processor.isExclude(name)) {
+            IOUtils.copy(in, out);
+            logger.info(Constants.CONSOLE, "Excluded from sanitization: {}", name);
+            return "excluded";
+        }
+
+        if (name.endsWith(".gz")) {
+            try (InputStream gzIn = new GZIPInputStream(CloseShieldInputStream.wrap(in), 64 * 1024);
+                 OutputStream gzOut = new GZIPOutputStream(CloseShieldOutputStream.wrap(out), 64 * 1024)) {
+                return scrub(gzIn, gzOut, name.substring(0, name.length() - ".gz".length()));
+            }
+        }
+
+        if (name.endsWith(".zip")) {
+            scrubNestedZip(in, out, name);
+            return "sanitized";
+        }
+
+        Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        if (processor.isJson(name)) {
+            processor.processJson(reader, writer, name);
+        } else {
+            processor.processStream(reader, writer, name, pool);
+        }
+        logger.info(Constants.CONSOLE, "Processed entry: {}", name);
+        return "sanitized";
+    }
+
+    // Remove and exclude rules are checked against the zip's name followed by the path inside it
+    private void scrubNestedZip(InputStream in, OutputStream out, String name) throws IOException {
+        ZipArchiveInputStream zipIn = new ZipArchiveInputStream(CloseShieldInputStream.wrap(in));
+        try (ZipArchiveOutputStream zipOut = new ZipArchiveOutputStream(CloseShieldOutputStream.wrap(out))) {
+            ZipArchiveEntry nested;
+            while ((nested = zipIn.getNextEntry()) != null) {
+                String nestedName = name + "/" + nested.getName();
+                if (processor.isRemove(nestedName)) {
+                    logger.info(Constants.CONSOLE, "Removing entry: {}", nestedName);
+                    continue;
+                }
+                if (isGzippedBinary(nestedName)) {
+                    logger.info(Constants.CONSOLE, "Removing gzipped entry that is not text: {}", nestedName);
+                    continue;
+                }
+                if (!nested.isDirectory() && !zipIn.canReadEntryData(nested)) {
+                    logger.info(Constants.CONSOLE, "Removing entry that cannot be read as a stream: {}", nestedName);
+                    continue;
+                }
+
+                zipOut.putArchiveEntry(new ZipArchiveEntry(nested.getName()));
+                if (!nested.isDirectory()) {
+                    scrub(zipIn, zipOut, nestedName);
+                }
+                zipOut.closeArchiveEntry();
+            }
+        }
+    }
+
+    // Scrubbing anything but text would corrupt it, and what can't be scrubbed is left out unless it is excluded
+    private boolean isGzippedBinary(String name) {
+        return name.endsWith(".gz") && !GZIPPED_TEXT.matcher(name).matches()
+                && !processor.isJson(name.substring(0, name.length() - ".gz".length()))
+                && !processor.isExclude(name);
+    }
+
+    private OutputStream openOutput() throws IOException {
+        if (sink != null) {
+            return sink.newOutput(entry.entryName());
+        }
+        return FileUtils.openOutputStream(outputFile());
+    }
+
+    private File outputFile() {
+        return new File(dir + SystemProperties.fileSeparator + entry.entryName());
+    }
+
+    private void discard(OutputStream out) {
+        if (sink != null) {
+            sink.discard(out);
+        } else {
+            IOUtils.closeQuietly(out);
+            FileUtils.deleteQuietly(outputFile());
+        }
+    }
+
+    // Entries going from one zip to another unchanged are copied without being decompressed
+    private boolean copyRaw() throws IOException {
+        if (sink instanceof ParallelZipOutputSink && entry instanceof ZipFileTaskEntry) {
+            ((ParallelZipOutputSink) sink).copyRaw((ZipFileTaskEntry) entry, entry.entryName());
+            return true;
+        }
+        return false;
+    }
+
     @Override
     public String toString() {
         return super.toString() + entry.entryName() + ":incomplete";
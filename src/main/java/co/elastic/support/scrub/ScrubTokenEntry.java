@@ -16,11 +16,15 @@ public class ScrubTokenEntry {
         this.include = include;
         this.exclude = exclude;
         this.pattern =  Pattern.compile(token);
+        this.includeRules = new ScrubRuleSet(include);
+        this.excludeRules = new ScrubRuleSet(exclude);
     }
     public final String token;
     public final List<String> include;
     public final List<String> exclude;
     public final Pattern pattern;
+    public final ScrubRuleSet includeRules;
+    public final ScrubRuleSet excludeRules;
 
     @Override
     public String toString() {
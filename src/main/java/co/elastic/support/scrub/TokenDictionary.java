@@ -0,0 +1,282 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.scrub;
+
+import co.elastic.support.diagnostics.DiagnosticException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * Replacement values kept on disk between scrub runs, so the same value gets the
+ * same replacement in every bundle scrubbed with the same dictionary. The IPv4
+ * octet table is stored with it for the same reason.
+ * <p>
+ * The file is only ever appended to. Entries from earlier runs are read through a
+ * memory mapping and found with a compact index of hashes and file offsets, so the
+ * keys and values themselves never have to be loaded into the heap. Entries added
+ * during the current run are written to the end of the file and are found through
+ * the processor's own caches until the next run. The file is locked while it is
+ * open, so only one run at a time can use it.
+ * <p>
+ * Layout: an 8 byte marker, the 256 entry octet table as ints, then one record
+ * per entry: a type byte, then the key and the value, each as an int length
+ * followed by that many UTF-8 bytes. A record cut short by an interrupted run is
+ * dropped when the file is next opened.
+ */
+public class TokenDictionary implements Closeable {
+
+    public static final byte TOKEN = 0;
+    public static final byte IPV4 = 1;
+    public static final byte IPV6 = 2;
+    public static final byte MAC = 3;
+
+    private static final Logger logger = LogManager.getLogger(TokenDictionary.class);
+    private static final byte[] MARKER = "SCRUBDC1".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_SIZE = MARKER.length + 256 * Integer.BYTES;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    private final DataOutputStream out;
+    private final int[] ipv4Octets = new int[256];
+
+    // Open addressing table: hash of type and key, and the record offset plus one, zero when empty
+    private long[] hashes;
+    private long[] offsets;
+    private int size;
+
+    private TokenDictionary(FileChannel channel) throws IOException {
+        this.channel = channel;
+
+        // Held until the channel is closed, so two runs never append to the same file
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            throw new IOException("Token dictionary is in use by another scrub run");
+        }
+
+        if (channel.size() > 0 && channel.size() < HEADER_SIZE) {
+            // Most likely the wrong file, which must not be overwritten
+            throw new IOException("Not a token dictionary");
+        }
+        if (channel.size() == 0) {
+            int[] octets = ScrubProcessor.randomIpv4Octets();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(MARKER);
+            for (int octet : octets) {
+                header.putInt(octet);
+            }
+            header.flip();
+            channel.write(header, 0);
+        }
+        if (channel.size() > Integer.MAX_VALUE) {
+            throw new IOException("Token dictionary is larger than 2GB");
+        }
+
+        // Read through the channel rather than the mapping, since a file can't be
+        // truncated on Windows while it is mapped
+        channel.position(0);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+        byte[] marker = new byte[MARKER.length];
+        in.readFully(marker);
+        if (!Arrays.equals(marker, MARKER)) {
+            throw new IOException("Not a token dictionary");
+        }
+        for (int i = 0; i < 256; i++) {
+            ipv4Octets[i] = in.readInt();
+        }
+
+        int end = buildIndex(in, channel.size());
+        if (end < channel.size()) {
+            logger.info("Dropping incomplete entry at the end of the token dictionary.");
+            channel.truncate(end);
+        }
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+        channel.position(end);
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+    }
+
+    public static TokenDictionary open(String file) throws DiagnosticException {
+        try {
+            FileChannel channel = FileChannel.open(Path.of(file),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                return new TokenDictionary(channel);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new DiagnosticException("Could not open token dictionary: " + file, e);
+        }
+    }
+
+    /**
+     * @return the octet table used for IPv4 addresses in every run with this dictionary.
+     */
+    public int[] getIpv4Octets() {
+        return ipv4Octets.clone();
+    }
+
+    /**
+     * @return number of entries carried over from earlier runs.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the stored replacement for the value, or generates, stores and returns a new one.
+     * A new one is written to the file but not indexed, so it is only found again once the
+     * dictionary is reopened. Callers keep their own cache of the values added in a run.
+     */
+    public String computeIfAbsent(byte type, String value, Function<String, String> generator) {
+        String replacement = get(type, value);
+        if (replacement == null) {
+            replacement = generator.apply(value);
+            append(type, value, replacement);
+        }
+        return replacement;
+    }
+
+    public String get(byte type, String value) {
+        byte[] key = value.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(type, key, 0, key.length);
+        int mask = hashes.length - 1;
+        for (int slot = (int) hash & mask; offsets[slot] != 0; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash) {
+                int offset = (int) (offsets[slot] - 1);
+                if (keyEquals(offset, type, key)) {
+                    int valueOffset = offset + 1 + Integer.BYTES + key.length;
+                    byte[] stored = new byte[mapped.getInt(valueOffset)];
+                    mapped.get(valueOffset + Integer.BYTES, stored);
+                    return new String(stored, StandardCharsets.UTF_8);
+                }
+            }
+        }
+        return null;
+    }
+
+    private synchronized void append(byte type, String value, String replacement) {
+        try {
+            byte[] key = value.getBytes(StandardCharsets.UTF_8);
+            byte[] stored = replacement.getBytes(StandardCharsets.UTF_8);
+            out.writeByte(type);
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeInt(stored.length);
+            out.write(stored);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write to token dictionary", e);
+        }
+    }
+
+    private boolean keyEquals(int offset, byte type, byte[] key) {
+        if (mapped.get(offset) != type || mapped.getInt(offset + 1) != key.length) {
+            return false;
+        }
+        int start = offset + 1 + Integer.BYTES;
+        for (int i = 0; i < key.length; i++) {
+            if (mapped.get(start + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Reads the records from earlier runs that follow the header and returns the end of the last complete one
+    private int buildIndex(DataInputStream in, long limit) throws IOException {
+        hashes = new long[1024];
+        offsets = new long[1024];
+        long position = HEADER_SIZE;
+        while (position + 1 + Integer.BYTES <= limit) {
+            byte type = in.readByte();
+            int keyLength = in.readInt();
+            long valueAt = position + 1 + Integer.BYTES + keyLength;
+            if (keyLength < 0 || valueAt + Integer.BYTES > limit) {
+                break;
+            }
+            byte[] key = new byte[keyLength];
+            in.readFully(key);
+            int valueLength = in.readInt();
+            if (valueLength < 0 || valueLength > limit - valueAt - Integer.BYTES) {
+                break;
+            }
+            in.skipNBytes(valueLength);
+
+            insert(hash(type, key, 0, keyLength), (int) position);
+            position = valueAt + Integer.BYTES + valueLength;
+        }
+        return (int) position;
+    }
+
+    private void insert(long hash, int offset) {
+        if ((size + 1) * 2 > hashes.length) {
+            long[] oldHashes = hashes;
+            long[] oldOffsets = offsets;
+            hashes = new long[oldHashes.length * 2];
+            offsets = new long[oldOffsets.length * 2];
+            size = 0;
+            for (int i = 0; i < oldHashes.length; i++) {
+                if (oldOffsets[i] != 0) {
+                    insert(oldHashes[i], (int) (oldOffsets[i] - 1));
+                }
+            }
+        }
+        int mask = hashes.length - 1;
+        int slot = (int) hash & mask;
+        while (offsets[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        hashes[slot] = hash;
+        offsets[slot] = offset + 1L;
+        size++;
+    }
+
+    // 64 bit FNV-1a with a final mix so the low bits used for the slot are well spread
+    private static long hash(byte type, byte[] key, int from, int to) {
+        long h = 0xcbf29ce484222325L;
+        h = (h ^ type) * 0x100000001b3L;
+        for (int i = from; i < to; i++) {
+            h = (h ^ (key[i] & 0xff)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            out.flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
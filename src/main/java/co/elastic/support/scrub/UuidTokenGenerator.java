@@ -0,0 +1,35 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.scrub;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * The original token format: the hex digits of a name based (MD5) UUID of the value,
+ * repeated as needed and cut to the length of the value, up to 64 characters. Tokens
+ * are the same for a given value in every run.
+ */
+public class UuidTokenGenerator implements TokenGenerator {
+
+    @Override
+    public String generate(String token) {
+        if (StringUtils.isEmpty(token)) {
+            return "";
+        }
+
+        int len = Math.min(token.length(), 64);
+        String hex = UUID.nameUUIDFromBytes(token.getBytes(StandardCharsets.UTF_8)).toString().replace("-", "");
+        StringBuilder newToken = new StringBuilder(len + 32);
+        while (newToken.length() < len) {
+            newToken.append(hex);
+        }
+        return newToken.substring(0, len);
+    }
+}
@@ -10,6 +10,8 @@ import co.elastic.support.Constants;
 import co.elastic.support.diagnostics.DiagnosticException;
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.DefaultBackingStoreSupplier;
+import org.apache.commons.compress.archivers.zip.ParallelScatterZipCreator;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
@@ -17,6 +19,9 @@ import org.apache.commons.io.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import java.io.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ArchiveUtils {
 
@@ -24,34 +29,61 @@ public class ArchiveUtils {
 
    public static File createZipArchive(String dir, String archiveFileName) throws DiagnosticException {
       File srcDir = new File(dir);
-      String filename = dir + "-" + archiveFileName + ".zip";
-
-      try (
-            FileOutputStream fout = new FileOutputStream(filename);
-            ZipArchiveOutputStream taos = new ZipArchiveOutputStream(fout)) {
-         archiveResultsZip(archiveFileName, taos, srcDir, null, true);
-         logger.info(Constants.CONSOLE, "Archive: " + filename + " was created");
-         return new File(filename);
-      } catch (IOException ioe) {
-         throw new DiagnosticException("Couldn't create zip archive.", ioe);
+      File archive = new File(dir + "-" + archiveFileName + ".zip");
+
+      // Every file is deflated on its own worker into scratch files next to the archive. The
+      // compressed entries are then copied into the zip as is, so packaging uses all cores.
+      ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+      ParallelScatterZipCreator scatterZip = new ParallelScatterZipCreator(
+            executor, new DefaultBackingStoreSupplier(archive.getAbsoluteFile().getParentFile().toPath()));
+
+      // Writing to the file directly lets stored entries be sized and checksummed after the fact.
+      try (ZipArchiveOutputStream taos = new ZipArchiveOutputStream(archive)) {
+         scatterResults(scatterZip, srcDir, srcDir.getName() + "-" + archiveFileName);
+         scatterZip.writeTo(taos);
+         logger.info(Constants.CONSOLE, "Archive: " + archive.getPath() + " was created");
+         return archive;
+      } catch (IOException | ExecutionException e) {
+         throw new DiagnosticException("Couldn't create zip archive.", e);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new DiagnosticException("Interrupted while creating zip archive.", e);
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   private static void scatterResults(ParallelScatterZipCreator scatterZip, File file, String relPath) {
+      if (file.isFile()) {
+         // An empty entry in place of one that can't be read would look like an empty result
+         if (!file.canRead()) {
+            logger.error(Constants.CONSOLE, "Archive Error: {} cannot be read and is left out", file.getPath());
+            return;
+         }
+         scatterZip.addArchiveEntry(newEntry(new ZipArchiveEntry(file, relPath)), () -> {
+            try {
+               return new FileInputStream(file);
+            } catch (IOException e) {
+               // Fails the archive, as one that silently misses a file would be mistaken for complete
+               throw new UncheckedIOException("Could not read " + file.getPath(), e);
+            }
+         });
+      } else if (file.isDirectory()) {
+         for (File childFile : file.listFiles()) {
+            scatterResults(scatterZip, childFile, relPath + "/" + childFile.getName());
+         }
       }
    }
 
    private static void archiveResultsZip(
-         String archiveFilename,
          ZipArchiveOutputStream zipFileStream,
          File file,
-         String path,
-         boolean append) {
+         String path) {
       String relPath = (path == null ? "" : path + "/") + file.getName();
 
       try {
-         if (append) {
-            relPath += "-" + archiveFilename;
-         }
-
          if (file.isFile()) {
-            zipFileStream.putArchiveEntry(new ZipArchiveEntry(file, relPath));
+            zipFileStream.putArchiveEntry(newEntry(new ZipArchiveEntry(file, relPath)));
 
             try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file))) {
                IOUtils.copy(bis, zipFileStream);
@@ -60,7 +92,7 @@ public class ArchiveUtils {
             }
          } else if (file.isDirectory()) {
             for (File childFile : file.listFiles()) {
-               archiveResultsZip(archiveFilename, zipFileStream, childFile, relPath, false);
+               archiveResultsZip(zipFileStream, childFile, relPath);
             }
          }
       } catch (IOException e) {
@@ -68,6 +100,30 @@ public class ArchiveUtils {
       }
    }
 
+   /**
+    * Adds everything below dir to an archive that is already open, with entry names
+    * starting at rootPath. The directory itself is not added.
+    */
+   static void appendDirectory(ZipArchiveOutputStream zipFileStream, File dir, String rootPath) {
+      File[] children = dir.listFiles();
+      if (children == null) {
+         return;
+      }
+      for (File childFile : children) {
+         archiveResultsZip(zipFileStream, childFile, rootPath);
+      }
+   }
+
+   static ZipArchiveEntry newEntry(ZipArchiveEntry entry) {
+      // Output that was gzipped as it was collected won't deflate any further
+      if (entry.getName().endsWith(".gz")) {
+         entry.setMethod(ZipArchiveEntry.STORED);
+      } else {
+         entry.setMethod(ZipArchiveEntry.DEFLATED);
+      }
+      return entry;
+   }
+
    public static void extractArchive(String filename, String targetDir) throws IOException {
       ArchiveInputStream ais = null;
       try {
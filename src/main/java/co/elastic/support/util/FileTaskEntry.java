@@ -11,9 +11,11 @@ import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.zip.GZIPInputStream;
 
 public class FileTaskEntry implements TaskEntry {
@@ -42,9 +44,13 @@ public class FileTaskEntry implements TaskEntry {
         return file.getName() + ":error";
     }
 
+    @Override
+    public InputStream stream() throws IOException {
+        return new BufferedInputStream(new FileInputStream(file));
+    }
+
     @Override
     public String entryName() {
-        String name =  file.getAbsolutePath().replaceFirst(rootDir + SystemProperties.fileSeparator, "");
-        return name.replaceFirst(".gz", "");
+        return file.getAbsolutePath().replaceFirst(rootDir + SystemProperties.fileSeparator, "");
     }
 }
@@ -0,0 +1,36 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.util;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Destination for collected output that is not a plain directory on disk.
+ */
+public interface OutputSink extends Closeable {
+
+    /**
+     * Opens a stream for a single output file. The caller must close it before
+     * the result is considered written.
+     *
+     * @param relativePath path of the output relative to the root of the diagnostic, using / as the separator
+     */
+    OutputStream newOutput(String relativePath) throws IOException;
+
+    /**
+     * Drops an output from {@link #newOutput(String)} that could not be written in
+     * full, in place of closing it. A sink that cannot take back what was written
+     * just closes it.
+     */
+    default void discard(OutputStream output) {
+        IOUtils.closeQuietly(output);
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.util;
+
+import co.elastic.support.Constants;
+import co.elastic.support.diagnostics.DiagnosticException;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes output into a zip archive from any number of threads at once. Each stream
+ * compresses its entry on the writing thread into a scratch file next to the
+ * archive, and the compressed entry is then copied into the archive as is, which
+ * is the same approach {@link ArchiveUtils#createZipArchive(String, String)} takes,
+ * without the uncompressed files having to be written to disk first.
+ * <p>
+ * The archive has the same name and layout as one built by createZipArchive from
+ * the given directory.
+ */
+public class ParallelZipOutputSink implements OutputSink {
+
+    private static final Logger logger = LogManager.getLogger(ParallelZipOutputSink.class);
+
+    private final File archive;
+    private final File scratchDir;
+    protected final String rootPath;
+    // Only written to while holding its monitor
+    protected final ZipArchiveOutputStream zipFileStream;
+
+    public ParallelZipOutputSink(String dir, String archiveFileName) throws DiagnosticException {
+        this.archive = new File(dir + "-" + archiveFileName + ".zip");
+        this.scratchDir = archive.getAbsoluteFile().getParentFile();
+        this.rootPath = new File(dir).getName() + "-" + archiveFileName;
+        try {
+            zipFileStream = new ZipArchiveOutputStream(archive);
+        } catch (IOException ioe) {
+            throw new DiagnosticException("Couldn't create zip archive.", ioe);
+        }
+    }
+
+    public File getArchive() {
+        return archive;
+    }
+
+    @Override
+    public OutputStream newOutput(String relativePath) throws IOException {
+        return new EntryOutputStream(entryName(relativePath));
+    }
+
+    /**
+     * Leaves the entry out of the archive, and removes its scratch file.
+     */
+    @Override
+    public void discard(OutputStream output) {
+        if (output instanceof EntryOutputStream) {
+            ((EntryOutputStream) output).discard();
+        } else {
+            OutputSink.super.discard(output);
+        }
+    }
+
+    /**
+     * Copies an entry from another zip without decompressing and compressing it again.
+     */
+    public void copyRaw(ZipFileTaskEntry source, String relativePath) throws IOException {
+        ZipArchiveEntry original = source.getZipEntry();
+        ZipArchiveEntry entry = new ZipArchiveEntry(entryName(relativePath));
+        entry.setMethod(original.getMethod());
+        entry.setSize(original.getSize());
+        entry.setCompressedSize(original.getCompressedSize());
+        entry.setCrc(original.getCrc());
+        entry.setTime(original.getTime());
+        try (InputStream in = source.getZipFile().getRawInputStream(source.getZipEntry())) {
+            synchronized (zipFileStream) {
+                zipFileStream.addRawArchiveEntry(entry, in);
+            }
+        }
+    }
+
+    public File finish() throws DiagnosticException {
+        try {
+            synchronized (zipFileStream) {
+                zipFileStream.close();
+            }
+            logger.info(Constants.CONSOLE, "Archive: " + archive.getPath() + " was created");
+            return archive;
+        } catch (IOException ioe) {
+            throw new DiagnosticException("Couldn't create zip archive.", ioe);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (zipFileStream) {
+            zipFileStream.close();
+        }
+    }
+
+    private String entryName(String relativePath) {
+        return rootPath + "/" + relativePath.replace('\\', '/');
+    }
+
+    private class EntryOutputStream extends OutputStream {
+        private final ZipArchiveEntry entry;
+        private final File scratch;
+        private final CountingOutputStream compressed;
+        private final Deflater deflater;
+        private final OutputStream out;
+        private final CRC32 crc = new CRC32();
+        private long size;
+        private boolean closed;
+
+        EntryOutputStream(String name) throws IOException {
+            entry = ArchiveUtils.newEntry(new ZipArchiveEntry(name));
+            scratch = Files.createTempFile(scratchDir.toPath(), "entry", ".tmp").toFile();
+            compressed = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(scratch.toPath()), 64 * 1024));
+            if (entry.getMethod() == ZipArchiveEntry.DEFLATED) {
+                // Raw deflate data, as it is stored inside a zip
+                deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                out = new DeflaterOutputStream(compressed, deflater, 64 * 1024);
+            } else {
+                deflater = null;
+                out = compressed;
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            crc.update(b);
+            size++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            crc.update(b, off, len);
+            size += len;
+        }
+
+        void discard() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.debug("Error closing discarded entry {}", entry.getName(), e);
+            } finally {
+                if (deflater != null) {
+                    deflater.end();
+                }
+                FileUtils.deleteQuietly(scratch);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                out.close();
+                entry.setSize(size);
+                entry.setCompressedSize(compressed.getByteCount());
+                entry.setCrc(crc.getValue());
+                try (InputStream in = new BufferedInputStream(new FileInputStream(scratch), 64 * 1024)) {
+                    synchronized (zipFileStream) {
+                        zipFileStream.addRawArchiveEntry(entry, in);
+                    }
+                }
+            } finally {
+                if (deflater != null) {
+                    deflater.end();
+                }
+                FileUtils.deleteQuietly(scratch);
+            }
+        }
+    }
+}
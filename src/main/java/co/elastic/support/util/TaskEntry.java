@@ -6,7 +6,17 @@
  */
 package co.elastic.support.util;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 public interface TaskEntry {
     public String content();
     public String entryName();
+
+    /**
+     * Opens the content as it is stored, so a gzipped entry is still compressed, for
+     * reading in pieces rather than loading it into memory all at once. The caller is
+     * responsible for closing it.
+     */
+    public InputStream stream() throws IOException;
 }
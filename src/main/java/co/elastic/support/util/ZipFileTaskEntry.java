@@ -12,6 +12,10 @@ import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.zip.GZIPInputStream;
 
 public class ZipFileTaskEntry implements TaskEntry {
@@ -48,9 +52,21 @@ public class ZipFileTaskEntry implements TaskEntry {
 
     }
 
+    @Override
+    public InputStream stream() throws IOException {
+        return new BufferedInputStream(zipFile.getInputStream(zipEntry));
+    }
+
+    public ZipFile getZipFile() {
+        return zipFile;
+    }
+
+    public ZipArchiveEntry getZipEntry() {
+        return zipEntry;
+    }
+
     @Override
     public String entryName() {
-        String name = zipEntry.getName().replaceFirst(archiveName, "");
-        return name.replace(".gz", "");
+        return zipEntry.getName().replaceFirst(archiveName, "");
     }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.util;
+
+import co.elastic.support.Constants;
+import co.elastic.support.diagnostics.DiagnosticException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes output straight into the final zip archive, which stays open for the
+ * whole run. The archive has the same name and layout as one built by
+ * {@link ArchiveUtils#createZipArchive(String, String)} from the temp directory,
+ * but nothing has to be written to disk uncompressed.
+ * <p>
+ * Each entry is compressed into its own scratch file while it is written and only
+ * holds the archive for the copy at the end, so concurrent REST calls download
+ * their bodies in parallel.
+ */
+public class ZipOutputSink extends ParallelZipOutputSink {
+
+    private static final Logger logger = LogManager.getLogger(ZipOutputSink.class);
+
+    public ZipOutputSink(String dir, String archiveFileName) throws DiagnosticException {
+        super(dir, archiveFileName);
+    }
+
+    /**
+     * Adds whatever was still written to the given directory, such as logs and
+     * manifests, and completes the archive.
+     */
+    public File finish(String dir) throws DiagnosticException {
+        try {
+            synchronized (zipFileStream) {
+                ArchiveUtils.appendDirectory(zipFileStream, new File(dir), rootPath);
+                zipFileStream.close();
+            }
+            logger.info(Constants.CONSOLE, "Archive: " + getArchive().getPath() + " was created");
+            return getArchive();
+        } catch (IOException ioe) {
+            throw new DiagnosticException("Couldn't create zip archive.", ioe);
+        }
+    }
+}
@@ -0,0 +1,566 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.diagnostics.commands;
+
+import co.elastic.support.diagnostics.DiagnosticInputs;
+import co.elastic.support.diagnostics.chain.DiagnosticContext;
+import co.elastic.support.rest.CollectionBudget;
+import co.elastic.support.rest.RestCallStats;
+import co.elastic.support.rest.RestClient;
+import co.elastic.support.rest.RestEntry;
+import co.elastic.support.util.OutputSink;
+import co.elastic.support.util.ZipOutputSink;
+import com.github.tomakehurst.wiremock.http.Fault;
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import com.github.tomakehurst.wiremock.stubbing.ServeEvent;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static co.elastic.support.testutil.ContainerTestHelper.loadDiagConfig;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BaseQueryTest {
+    @RegisterExtension
+    static WireMockExtension wm = WireMockExtension.newInstance().options(wireMockConfig().dynamicPort().gzipDisabled(true)).build();
+
+    private RestClient restClient;
+
+    private final BaseQuery query = new BaseQuery() {
+        @Override
+        public void execute(DiagnosticContext context) {
+        }
+    };
+
+    @BeforeEach
+    void setUp() {
+        restClient = RestClient.getClient(
+            "localhost", wm.getPort(), "http", null, null, null, 0, null, null, null, null, false, null, 5000, 5000, 5000
+        );
+        wm.stubFor(get(urlEqualTo("/_cat/health")).willReturn(aResponse().withStatus(200).withBody("green").withFixedDelay(200)));
+        wm.stubFor(get(urlEqualTo("/_nodes")).willReturn(aResponse().withStatus(200).withBody("{}").withFixedDelay(200)));
+        wm.stubFor(get(urlEqualTo("/_cluster/state")).willReturn(aResponse().withStatus(503).withBody("busy")));
+    }
+
+    @AfterEach
+    void tearDown() {
+        restClient.close();
+    }
+
+    private List<RestEntry> entries() {
+        return Arrays.asList(
+            new RestEntry("cat_health", "cat", ".txt", false, "/_cat/health", true),
+            new RestEntry("nodes", "", ".json", true, "/_nodes", true),
+            new RestEntry("cluster_state", "", ".json", true, "/_cluster/state", true)
+        );
+    }
+
+    private DiagnosticContext contextFor(Path tempDir, int concurrentCalls) {
+        DiagnosticContext context = new DiagnosticContext(loadDiagConfig(), null, null, false);
+        context.tempDir = tempDir.toString();
+        context.diagsConfig.concurrentCalls = concurrentCalls;
+        return context;
+    }
+
+    @Test
+    void execQueryList_concurrent_writesSameLayoutAsSequential(@TempDir Path tempDir) throws IOException {
+        List<RestEntry> retries = query.execQueryList(restClient, entries(), contextFor(tempDir, 4));
+
+        assertEquals("green", Files.readString(tempDir.resolve("cat").resolve("cat_health.txt")));
+        assertEquals("{}", Files.readString(tempDir.resolve("nodes.json")));
+        assertEquals(1, retries.size());
+        assertEquals("cluster_state", retries.get(0).getName());
+    }
+
+    @Test
+    void execQueryList_sequential_flagsRetryableFailures(@TempDir Path tempDir) {
+        List<RestEntry> retries = query.execQueryList(restClient, entries(), contextFor(tempDir, 1));
+
+        assertTrue(Files.exists(tempDir.resolve("nodes.json")));
+        assertEquals(1, retries.size());
+        assertEquals("cluster_state", retries.get(0).getName());
+    }
+
+    @Test
+    void runQueries_countsRetriesAcrossPasses(@TempDir Path tempDir) {
+        DiagnosticContext context = contextFor(tempDir, 3);
+
+        int totalRetries = query.runQueries(restClient, entries(), context, 2, 0);
+
+        // cluster_state fails on the first pass and on both retries
+        assertEquals(3, totalRetries);
+        assertEquals(3, context.restCallStats.get("cluster_state.json").getAttempts());
+        assertEquals(503, context.restCallStats.get("cluster_state.json").getStatus());
+    }
+
+    @Test
+    void runQueries_startsMostExpensiveEntriesFirst(@TempDir Path tempDir) {
+        List<RestEntry> entries = Arrays.asList(
+            RestEntry.builder("cat_health", "/_cat/health").subdir("cat").extension(".txt").build(),
+            RestEntry.builder("nodes", "/_nodes").cost(80).build()
+        );
+        DiagnosticContext context = contextFor(tempDir, 1);
+
+        query.runQueries(restClient, entries, context, 0, 0);
+
+        List<ServeEvent> served = wm.getAllServeEvents();
+        // serve events are listed most recent first
+        assertEquals("/_cat/health", served.get(0).getRequest().getUrl());
+        assertEquals("/_nodes", served.get(1).getRequest().getUrl());
+        assertEquals(5, context.restCallStats.get("cat/cat_health.txt").getBytes());
+        assertEquals(200, context.restCallStats.get("nodes.json").getStatus());
+    }
+
+    @Test
+    void execQueryList_compressesFlaggedEntriesWhenEnabled(@TempDir Path tempDir) throws IOException {
+        String body = "{\"nodes\":{}}".repeat(200);
+        wm.stubFor(get(urlEqualTo("/_nodes/stats")).willReturn(aResponse().withStatus(200).withBody(body)));
+        List<RestEntry> entries = Arrays.asList(
+            new RestEntry("nodes_stats", "", ".json", false, "/_nodes/stats", true, null, false, 0, true),
+            new RestEntry("nodes", "", ".json", false, "/_nodes", true, null, false, 0, false)
+        );
+        DiagnosticContext context = contextFor(tempDir, 1);
+        context.diagsConfig.compressResponses = true;
+
+        query.execQueryList(restClient, entries, context);
+
+        assertFalse(Files.exists(tempDir.resolve("nodes_stats.json")));
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(tempDir.resolve("nodes_stats.json.gz")))) {
+            assertEquals(body, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertEquals("{}", Files.readString(tempDir.resolve("nodes.json")));
+
+        RestCallStats stats = context.restCallStats.get("nodes_stats.json");
+        assertEquals(body.length(), stats.getBytes());
+        assertTrue(stats.getStoredBytes() < stats.getBytes());
+    }
+
+    @Test
+    void execQueryList_ignoresCompressHintByDefault(@TempDir Path tempDir) {
+        List<RestEntry> entries = List.of(
+            new RestEntry("nodes", "", ".json", false, "/_nodes", true, null, false, 0, true)
+        );
+
+        query.execQueryList(restClient, entries, contextFor(tempDir, 1));
+
+        assertTrue(Files.exists(tempDir.resolve("nodes.json")));
+    }
+
+    @Test
+    void execQueryList_writesSuccessfulResultsToOutputSink(@TempDir Path tempDir) throws Exception {
+        wm.stubFor(get(urlEqualTo("/api/stats")).willReturn(aResponse().withStatus(200).withBody("{\"kibana\":{}}")));
+        Path diagDir = Files.createDirectory(tempDir.resolve("api-diagnostics"));
+        List<RestEntry> entries = Arrays.asList(
+            new RestEntry("cat_health", "cat", ".txt", false, "/_cat/health", true),
+            new RestEntry("cluster_state", "", ".json", true, "/_cluster/state", true),
+            new RestEntry("kibana_stats", "", ".json", false, "/api/stats", true)
+        );
+        DiagnosticContext context = contextFor(diagDir, 2);
+        ZipOutputSink sink = new ZipOutputSink(diagDir.toString(), "test");
+        context.outputSink = sink;
+
+        List<RestEntry> retries = query.execQueryList(restClient, entries, context);
+        File archive = sink.finish(diagDir.toString());
+
+        assertEquals(1, retries.size());
+        assertFalse(Files.exists(diagDir.resolve("cat")));
+        // read back by a later command, so it stays in tempDir
+        assertTrue(Files.exists(diagDir.resolve("kibana_stats.json")));
+        try (ZipFile zip = ZipFile.builder().setFile(archive).get()) {
+            ZipArchiveEntry health = zip.getEntry("api-diagnostics-test/cat/cat_health.txt");
+            assertEquals("green", new String(zip.getInputStream(health).readAllBytes(), StandardCharsets.UTF_8));
+            assertNotNull(zip.getEntry("api-diagnostics-test/cluster_state.json"));
+            assertNotNull(zip.getEntry("api-diagnostics-test/kibana_stats.json"));
+        }
+    }
+
+    @Test
+    void execQueryList_concurrentCallsDownloadBodiesIntoTheArchiveInParallel(@TempDir Path tempDir) throws Exception {
+        Path diagDir = Files.createDirectory(tempDir.resolve("api-diagnostics"));
+        List<RestEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            // the body takes a second to arrive, after the headers
+            wm.stubFor(get(urlEqualTo("/_cat/slow_" + i)).willReturn(aResponse().withStatus(200)
+                .withBody("slow " + i).withChunkedDribbleDelay(5, 1000)));
+            entries.add(new RestEntry("slow_" + i, "cat", ".txt", false, "/_cat/slow_" + i, true));
+        }
+        DiagnosticContext context = contextFor(diagDir, 4);
+        ZipOutputSink sink = new ZipOutputSink(diagDir.toString(), "test");
+        context.outputSink = sink;
+
+        long start = System.nanoTime();
+        List<RestEntry> retries = query.execQueryList(restClient, entries, context);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        File archive = sink.finish(diagDir.toString());
+
+        assertTrue(retries.isEmpty());
+        // one entry at a time would take at least four seconds
+        assertTrue(millis < 3000, "took " + millis + " ms");
+        try (ZipFile zip = ZipFile.builder().setFile(archive).get()) {
+            for (int i = 0; i < 4; i++) {
+                ZipArchiveEntry slow = zip.getEntry("api-diagnostics-test/cat/slow_" + i + ".txt");
+                assertEquals("slow " + i, new String(zip.getInputStream(slow).readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        // no scratch files are left next to the archive
+        try (var files = Files.list(tempDir)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    void execQuery_releasesTheConnectionWhenTheSinkCannotOpenAnEntry(@TempDir Path tempDir) {
+        wm.stubFor(get(urlEqualTo("/_cat/indices")).willReturn(aResponse().withStatus(200).withBody("indices")));
+        DiagnosticContext context = contextFor(tempDir, 1);
+        context.outputSink = new OutputSink() {
+            @Override
+            public OutputStream newOutput(String relativePath) throws IOException {
+                throw new IOException("archive closed");
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        // more than the connections allowed per route, so a leaked one would leave the last calls waiting for the pool
+        for (int i = 0; i < 12; i++) {
+            query.execQuery(restClient, new RestEntry("cat_indices_" + i, "cat", ".txt", false, "/_cat/indices", true), context);
+        }
+
+        wm.verify(12, getRequestedFor(urlEqualTo("/_cat/indices")));
+        assertTrue(restClient.execQuery("/_cat/indices").isValid());
+    }
+
+    @Test
+    void runQueries_waitsForRetryAfterOnTooManyRequests(@TempDir Path tempDir) {
+        wm.stubFor(get(urlEqualTo("/_cat/shards")).inScenario("rejected").whenScenarioStateIs(Scenario.STARTED)
+            .willReturn(aResponse().withStatus(429).withHeader("Retry-After", "1")).willSetStateTo("accepted"));
+        wm.stubFor(get(urlEqualTo("/_cat/shards")).inScenario("rejected").whenScenarioStateIs("accepted")
+            .willReturn(aResponse().withStatus(200).withBody("shards")));
+        List<RestEntry> entries = List.of(new RestEntry("cat_shards", "cat", ".txt", true, "/_cat/shards", true));
+        DiagnosticContext context = contextFor(tempDir, 1);
+
+        long start = System.nanoTime();
+        int totalRetries = query.runQueries(restClient, entries, context, 3, 0);
+
+        assertTrue((System.nanoTime() - start) / 1_000_000 >= 1000);
+        assertEquals(1, totalRetries);
+        assertEquals(200, context.restCallStats.get("cat/cat_shards.txt").getStatus());
+        assertEquals(2, context.restCallStats.get("cat/cat_shards.txt").getAttempts());
+    }
+
+    @Test
+    void runQueries_stopsRetryingEndpointClassAfterRepeatedServerErrors(@TempDir Path tempDir) {
+        wm.stubFor(get(urlEqualTo("/_cluster/settings")).willReturn(aResponse().withStatus(503)));
+        wm.stubFor(get(urlEqualTo("/_cluster/health")).willReturn(aResponse().withStatus(500)));
+        List<RestEntry> entries = Arrays.asList(
+            new RestEntry("cluster_state", "", ".json", true, "/_cluster/state", true),
+            new RestEntry("cluster_settings", "", ".json", true, "/_cluster/settings", true),
+            new RestEntry("cluster_health", "", ".json", true, "/_cluster/health", true),
+            new RestEntry("cat_health", "cat", ".txt", true, "/_cat/health", true)
+        );
+        DiagnosticContext context = contextFor(tempDir, 1);
+
+        int totalRetries = query.runQueries(restClient, entries, context, 3, 0);
+
+        // three failures in a row from /_cluster open the breaker before the first retry
+        assertEquals(3, totalRetries);
+        assertEquals(1, context.restCallStats.get("cluster_state.json").getAttempts());
+        assertEquals(1, context.restCallStats.get("cluster_health.json").getAttempts());
+        assertTrue(context.circuitBreaker.isOpen("/_cluster/pending_tasks"));
+        assertFalse(context.circuitBreaker.isOpen("/_cat/health"));
+    }
+
+    @Test
+    void retryDelays_areJitteredExponentialBackoff(@TempDir Path tempDir) {
+        DiagnosticContext context = contextFor(tempDir, 1);
+        context.diagsConfig.maxPauseRetries = 30000;
+        List<RestEntry> failed = entries();
+
+        for (int retry = 0; retry < 3; retry++) {
+            long backoff = 1000L << retry;
+            for (long delay : query.retryDelays(failed, context, retry, 1000).values()) {
+                assertTrue(delay >= backoff / 2 && delay <= backoff, retry + ": " + delay);
+            }
+        }
+        // capped at the maximum pause
+        for (long delay : query.retryDelays(failed, context, 10, 1000).values()) {
+            assertTrue(delay <= 30000);
+        }
+    }
+
+    @Test
+    void execQuery_usesTheEntryTimeoutOverTheClientDefault(@TempDir Path tempDir) {
+        wm.stubFor(get(urlEqualTo("/_cluster/state?human")).willReturn(aResponse().withStatus(200).withBody("{}").withFixedDelay(1500)));
+        DiagnosticContext context = contextFor(tempDir, 1);
+
+        query.execQuery(restClient, RestEntry.builder("cluster_state", "/_cluster/state?human").timeout(1).build(),
+            context);
+        query.execQuery(restClient, new RestEntry("cluster_state_default", "", ".json", false, "/_cluster/state?human", true),
+            context);
+
+        assertEquals(-1, context.restCallStats.get("cluster_state.json").getStatus());
+        assertEquals(200, context.restCallStats.get("cluster_state_default.json").getStatus());
+    }
+
+    @Test
+    void runQueries_skipsLowPriorityEntriesWhenTheBudgetRunsLow(@TempDir Path tempDir) throws Exception {
+        wm.stubFor(get(urlEqualTo("/_cat/nodes")).willReturn(aResponse().withStatus(200).withBody("nodes").withFixedDelay(3100)));
+        List<RestEntry> entries = Arrays.asList(
+            new RestEntry("cat_nodes", "cat", ".txt", false, "/_cat/nodes", true),
+            new RestEntry("segments", "", ".json", false, "/_segments", true, null, false, 0, false, 0, true),
+            new RestEntry("cluster_state", "", ".json", true, "/_cluster/state", true)
+        );
+        DiagnosticContext context = contextFor(tempDir, 1);
+        context.collectionBudget = new CollectionBudget(4000);
+
+        int totalRetries = query.runQueries(restClient, entries, context, 3, 2000);
+
+        // over three quarters of the budget is gone once cat_nodes returns
+        assertEquals(200, context.restCallStats.get("cat/cat_nodes.txt").getStatus());
+        assertEquals("budget low", context.restCallStats.get("segments.json").getSkipped());
+        assertEquals(0, context.restCallStats.get("segments.json").getAttempts());
+        assertNull(context.restCallStats.get("cluster_state.json").getSkipped());
+        // its retry would start after the budget has run out
+        assertEquals(1, totalRetries);
+        assertEquals(1, context.restCallStats.get("cluster_state.json").getAttempts());
+
+        context.diagnosticInputs = new DiagnosticInputs("cli");
+        new GenerateDiagnosticManifest().execute(context);
+        String manifest = Files.readString(tempDir.resolve("diagnostic_manifest.json"));
+        assertTrue(manifest.contains("\"skipped_calls\" : [ \"segments.json\" ]"), manifest);
+    }
+
+    @Test
+    void runQueries_replacesTruncatedBodyOnRetry(@TempDir Path tempDir) throws Exception {
+        wm.stubFor(get(urlEqualTo("/_cluster/state?human")).inScenario("broken").whenScenarioStateIs(Scenario.STARTED)
+            .willReturn(aResponse().withFault(Fault.MALFORMED_RESPONSE_CHUNK)).willSetStateTo("whole"));
+        wm.stubFor(get(urlEqualTo("/_cluster/state?human")).inScenario("broken").whenScenarioStateIs("whole")
+            .willReturn(aResponse().withStatus(200).withBody("{\"cluster_name\":\"test\"}")));
+        List<RestEntry> entries = List.of(new RestEntry("cluster_state", "", ".json", true, "/_cluster/state?human", true));
+        DiagnosticContext context = contextFor(tempDir, 1);
+
+        int totalRetries = query.runQueries(restClient, entries, context, 3, 0);
+
+        assertEquals(1, totalRetries);
+        byte[] written = Files.readAllBytes(tempDir.resolve("cluster_state.json"));
+        assertEquals("{\"cluster_name\":\"test\"}", new String(written, StandardCharsets.UTF_8));
+        assertFalse(Files.exists(tempDir.resolve("cluster_state.json.part")));
+        RestCallStats stats = context.restCallStats.get("cluster_state.json");
+        assertFalse(stats.isTruncated());
+        assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(written)), stats.getChecksum());
+    }
+
+    @Test
+    void runQueries_replacesTruncatedBodyOnRetryInTheOutputArchive(@TempDir Path tempDir) throws Exception {
+        wm.stubFor(get(urlEqualTo("/_cluster/state?human")).inScenario("broken").whenScenarioStateIs(Scenario.STARTED)
+            .willReturn(aResponse().withFault(Fault.MALFORMED_RESPONSE_CHUNK)).willSetStateTo("whole"));
+        wm.stubFor(get(urlEqualTo("/_cluster/state?human")).inScenario("broken").whenScenarioStateIs("whole")
+            .willReturn(aResponse().withStatus(200).withBody("{\"cluster_name\":\"test\"}")));
+        Path diagDir = Files.createDirectory(tempDir.resolve("api-diagnostics"));
+        List<RestEntry> entries = List.of(new RestEntry("cluster_state", "", ".json", true, "/_cluster/state?human", true));
+        DiagnosticContext context = contextFor(diagDir, 1);
+        ZipOutputSink sink = new ZipOutputSink(diagDir.toString(), "test");
+        context.outputSink = sink;
+
+        int totalRetries = query.runQueries(restClient, entries, context, 3, 0);
+        File archive = sink.finish(diagDir.toString());
+
+        assertEquals(1, totalRetries);
+        try (ZipFile zip = ZipFile.builder().setFile(archive).get()) {
+            ZipArchiveEntry state = zip.getEntry("api-diagnostics-test/cluster_state.json");
+            assertEquals("{\"cluster_name\":\"test\"}", new String(zip.getInputStream(state).readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertFalse(context.restCallStats.get("cluster_state.json").isTruncated());
+    }
+
+    @Test
+    void execQuery_truncatedBodyLeavesNoFileAndIsFlagged(@TempDir Path tempDir) throws Exception {
+        wm.stubFor(get(urlEqualTo("/_cluster/state?human")).willReturn(aResponse().withFault(Fault.MALFORMED_RESPONSE_CHUNK)));
+        DiagnosticContext context = contextFor(tempDir, 1);
+
+        assertFalse(query.execQuery(restClient,
+            new RestEntry("cluster_state", "", ".json", false, "/_cluster/state?human", true), context));
+
+        assertFalse(Files.exists(tempDir.resolve("cluster_state.json")));
+        assertFalse(Files.exists(tempDir.resolve("cluster_state.json.part")));
+        RestCallStats stats = context.restCallStats.get("cluster_state.json");
+        assertEquals(200, stats.getStatus());
+        assertTrue(stats.isTruncated());
+        assertNull(stats.getChecksum());
+
+        context.diagnosticInputs = new DiagnosticInputs("cli");
+        new GenerateDiagnosticManifest().execute(context);
+        String manifest = Files.readString(tempDir.resolve("diagnostic_manifest.json"));
+        assertTrue(manifest.contains("\"truncated_calls\" : [ \"cluster_state.json\" ]"), manifest);
+    }
+
+    @Test
+    void execQuery_truncatedBodyIsLeftOutOfTheOutputArchive(@TempDir Path tempDir) throws Exception {
+        wm.stubFor(get(urlEqualTo("/_cluster/state?human")).willReturn(aResponse().withFault(Fault.MALFORMED_RESPONSE_CHUNK)));
+        Path diagDir = Files.createDirectory(tempDir.resolve("api-diagnostics"));
+        DiagnosticContext context = contextFor(diagDir, 1);
+        ZipOutputSink sink = new ZipOutputSink(diagDir.toString(), "test");
+        context.outputSink = sink;
+
+        assertFalse(query.execQuery(restClient,
+            new RestEntry("cluster_state", "", ".json", false, "/_cluster/state?human", true), context));
+        File archive = sink.finish(diagDir.toString());
+
+        try (ZipFile zip = ZipFile.builder().setFile(archive).get()) {
+            assertNull(zip.getEntry("api-diagnostics-test/cluster_state.json"));
+        }
+        assertTrue(context.restCallStats.get("cluster_state.json").isTruncated());
+        // no scratch file is left next to the archive
+        try (var files = Files.list(tempDir)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    void execQuery_failedWriteIsAnErrorNotATruncatedBody(@TempDir Path tempDir) {
+        wm.stubFor(get(urlEqualTo("/_cat/indices")).willReturn(aResponse().withStatus(200).withBody("indices")));
+        DiagnosticContext context = contextFor(tempDir, 1);
+        context.outputSink = new OutputSink() {
+            @Override
+            public OutputStream newOutput(String relativePath) {
+                return new OutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        throw new IOException("No space left on device");
+                    }
+                };
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        query.execQuery(restClient, new RestEntry("cat_indices", "cat", ".txt", true, "/_cat/indices", true), context);
+
+        RestCallStats stats = context.restCallStats.get("cat/cat_indices.txt");
+        assertEquals(-1, stats.getStatus());
+        assertFalse(stats.isTruncated());
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void execQuery_storesGzipResponseAsReceivedWhenOutputIsCompressed(@TempDir Path tempDir) throws Exception {
+        String body = "{\"nodes\":{" + "\"node\":{\"name\":\"instance-0000000001\"},".repeat(200) + "}}";
+        byte[] gzipped = gzip(body);
+        wm.stubFor(get(urlEqualTo("/_nodes/stats")).withHeader("Accept-Encoding", equalTo("gzip"))
+            .willReturn(aResponse().withStatus(200).withHeader("Content-Encoding", "gzip").withBody(gzipped)));
+        DiagnosticContext context = contextFor(tempDir, 1);
+        context.diagsConfig.compressResponses = true;
+        context.diagsConfig.requestCompression = true;
+
+        query.execQuery(restClient, RestEntry.builder("nodes_stats", "/_nodes/stats").compress(true).build(), context);
+
+        Path output = tempDir.resolve("nodes_stats.json.gz");
+        assertTrue(Arrays.equals(gzipped, Files.readAllBytes(output)));
+        RestCallStats stats = context.restCallStats.get("nodes_stats.json");
+        assertEquals(body.length(), stats.getBytes());
+        assertEquals(gzipped.length, stats.getTransferredBytes());
+        assertEquals(body.length() - gzipped.length, stats.getSavedBytes());
+    }
+
+    @Test
+    void execQuery_decodesGzipResponseForPlainOutput(@TempDir Path tempDir) throws Exception {
+        String body = "index shard prirep state\n" + "logs-000001 0 p STARTED\n".repeat(100);
+        wm.stubFor(get(urlEqualTo("/_cat/shards")).withHeader("Accept-Encoding", equalTo("gzip"))
+            .willReturn(aResponse().withStatus(200).withHeader("Content-Encoding", "gzip").withBody(gzip(body))));
+        DiagnosticContext context = contextFor(tempDir, 1);
+        context.diagsConfig.requestCompression = true;
+
+        query.execQuery(restClient, new RestEntry("cat_shards", "cat", ".txt", false, "/_cat/shards", true), context);
+
+        assertEquals(body, Files.readString(tempDir.resolve("cat").resolve("cat_shards.txt")));
+        assertTrue(context.restCallStats.get("cat/cat_shards.txt").getSavedBytes() > 0);
+
+        context.diagnosticInputs = new DiagnosticInputs("cli");
+        new GenerateDiagnosticManifest().execute(context);
+        String manifest = Files.readString(tempDir.resolve("diagnostic_manifest.json"));
+        assertTrue(manifest.contains("\"transfer_saved_bytes\" : " + context.restCallStats.get("cat/cat_shards.txt").getSavedBytes()),
+            manifest);
+    }
+
+    @Test
+    void execQuery_unsupportedEncodingIsNotRetriedOrTruncated(@TempDir Path tempDir) {
+        wm.stubFor(get(urlEqualTo("/_cat/shards")).willReturn(aResponse().withStatus(200)
+            .withHeader("Content-Encoding", "br").withBody("not brotli")));
+        DiagnosticContext context = contextFor(tempDir, 1);
+
+        assertFalse(query.execQuery(restClient,
+            new RestEntry("cat_shards", "cat", ".txt", false, "/_cat/shards", true), context));
+
+        assertFalse(Files.exists(tempDir.resolve("cat").resolve("cat_shards.txt")));
+        assertFalse(Files.exists(tempDir.resolve("cat").resolve("cat_shards.txt.part")));
+        RestCallStats stats = context.restCallStats.get("cat/cat_shards.txt");
+        assertFalse(stats.isTruncated());
+        assertNull(stats.getChecksum());
+    }
+
+    @Test
+    void execQuery_asksForGzipByDefault(@TempDir Path tempDir) {
+        DiagnosticContext context = contextFor(tempDir, 1);
+
+        query.execQuery(restClient, new RestEntry("nodes", "", ".json", false, "/_nodes", true), context);
+
+        wm.verify(getRequestedFor(urlEqualTo("/_nodes")).withHeader("Accept-Encoding", equalTo("gzip")));
+    }
+
+    @Test
+    void execQuery_doesNotAskForGzipWhenTurnedOff(@TempDir Path tempDir) {
+        DiagnosticContext context = contextFor(tempDir, 1);
+        context.diagsConfig.requestCompression = false;
+
+        query.execQuery(restClient, new RestEntry("nodes", "", ".json", false, "/_nodes", true), context);
+
+        wm.verify(getRequestedFor(urlEqualTo("/_nodes")).withoutHeader("Accept-Encoding"));
+        assertEquals(0, context.restCallStats.get("nodes.json").getSavedBytes());
+    }
+}
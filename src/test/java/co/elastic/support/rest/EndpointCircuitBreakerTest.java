@@ -0,0 +1,40 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.rest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EndpointCircuitBreakerTest {
+
+    @Test
+    void isOpen_sharedByEndpointsUnderTheSameFirstSegment() {
+        EndpointCircuitBreaker breaker = new EndpointCircuitBreaker(3);
+        for (int i = 0; i < 3; i++) {
+            breaker.record("/_cluster/state", 503);
+        }
+
+        assertTrue(breaker.isOpen("/_cluster/settings?include_defaults"));
+        assertFalse(breaker.isOpen("/_nodes/stats"));
+    }
+
+    @Test
+    void isOpen_failingCatEndpointLeavesOtherCatEndpointsClosed() {
+        EndpointCircuitBreaker breaker = new EndpointCircuitBreaker(3);
+        for (int i = 0; i < 3; i++) {
+            breaker.record("/_cat/ml/anomaly_detectors?v", 500);
+            breaker.record("/api/fleet/agents", -1);
+        }
+
+        assertTrue(breaker.isOpen("/_cat/ml/datafeeds"));
+        assertFalse(breaker.isOpen("/_cat/shards?v"));
+        assertTrue(breaker.isOpen("/api/fleet/agent_policies"));
+        assertFalse(breaker.isOpen("/api/stats"));
+    }
+}
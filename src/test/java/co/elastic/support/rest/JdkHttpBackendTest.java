@@ -0,0 +1,229 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.rest;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.HttpClientUtils;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.util.EntityUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPOutputStream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
+import static com.github.tomakehurst.wiremock.client.WireMock.delete;
+import static com.github.tomakehurst.wiremock.client.WireMock.deleteRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalToJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JdkHttpBackendTest {
+    @RegisterExtension
+    static WireMockExtension wm = WireMockExtension.newInstance().options(wireMockConfig().dynamicPort().dynamicHttpsPort().gzipDisabled(true)).build();
+
+    private RestClient restClient;
+
+    @BeforeEach
+    void setUp() {
+        restClient = RestClient.getClient(
+            "localhost",
+            wm.getPort(),
+            "http",
+            "elastic",
+            "changeme",
+            null,
+            0,
+            null,
+            null,
+            null,
+            null,
+            false,
+            Map.of("X-Diagnostic", "test"),
+            5000,
+            5000,
+            5000,
+            RestClient.JDK_BACKEND
+        );
+    }
+
+    @AfterEach
+    void tearDown() {
+        restClient.close();
+    }
+
+    @Test
+    void execQuery_sameResultsAsApacheClient(@TempDir Path tempDir) throws Exception {
+        wm.stubFor(get(urlEqualTo("/_cluster/health")).willReturn(aResponse().withStatus(200)
+            .withHeader("Content-Type", "application/json; charset=UTF-8")
+            .withBody("{\"cluster_name\":\"café\"}")));
+        wm.stubFor(get(urlEqualTo("/_missing")).willReturn(aResponse().withStatus(404).withBody("Not Found")));
+
+        RestResult result = restClient.execQuery("/_cluster/health");
+        assertTrue(result.isValid());
+        assertEquals("{\"cluster_name\":\"café\"}", result.toString());
+
+        RestResult missing = restClient.execQuery("/_missing");
+        assertEquals(404, missing.getStatus());
+        assertEquals("Not Found", missing.toString());
+
+        Path outFile = tempDir.resolve("health.json");
+        RestResult streamed = new RestResult(restClient.execGet("/_cluster/health"), outFile.toString(), "/_cluster/health", true);
+        assertTrue(streamed.isValid());
+        assertTrue(Files.size(outFile) > 0);
+
+        wm.verify(getRequestedFor(urlEqualTo("/_cluster/health"))
+            .withHeader("Authorization", containing("Basic"))
+            .withHeader("X-Diagnostic", equalTo("test")));
+    }
+
+    @Test
+    void execPostAndDelete_sendBodyAndHeaders() {
+        String payload = "{\"query\":{\"match_all\":{}}}";
+        wm.stubFor(post(urlEqualTo("/_search")).willReturn(aResponse().withStatus(200).withBody("{\"hits\":{}}")));
+        wm.stubFor(delete(urlEqualTo("/_search/scroll/abc")).willReturn(aResponse().withStatus(200)));
+
+        RestResult result = new RestResult(restClient.execPost("/_search", payload), "/_search");
+        HttpClientUtils.closeQuietly(restClient.execDelete("/_search/scroll/abc"));
+
+        assertEquals("{\"hits\":{}}", result.toString());
+        wm.verify(postRequestedFor(urlEqualTo("/_search"))
+            .withHeader("Content-type", equalTo("application/json"))
+            .withRequestBody(equalToJson(payload)));
+        wm.verify(deleteRequestedFor(urlEqualTo("/_search/scroll/abc")));
+    }
+
+    @Test
+    void execGet_timeoutIsReportedAsApacheWould() {
+        wm.stubFor(get(urlEqualTo("/_cluster/state")).willReturn(aResponse().withStatus(200).withFixedDelay(1500)));
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> restClient.execGet("/_cluster/state", 300, false));
+
+        // BaseQuery retries anything caused by an InterruptedIOException
+        assertNotEquals(-1, ExceptionUtils.indexOfType(e, InterruptedIOException.class));
+    }
+
+    @Test
+    void execute_waitsForASlotUntilTheBodyIsClosed() throws Exception {
+        wm.stubFor(get(urlEqualTo("/_cat/health")).willReturn(aResponse().withStatus(200).withBody("green")));
+        JdkHttpBackend backend = new JdkHttpBackend("http", null, null, null, 0, null, null,
+            new SSLContextBuilder().build(), 1, 5000, 200, 5000);
+        HttpHost host = new HttpHost("localhost", wm.getPort(), "http");
+
+        try {
+            HttpResponse first = backend.execute(host, new HttpGet("/_cat/health"));
+            assertThrows(ConnectionPoolTimeoutException.class, () -> backend.execute(host, new HttpGet("/_cat/health")));
+
+            HttpClientUtils.closeQuietly(first);
+            HttpResponse second = backend.execute(host, new HttpGet("/_cat/health"));
+            assertEquals(200, second.getStatusLine().getStatusCode());
+            assertFalse(second.getEntity().isRepeatable());
+            HttpClientUtils.closeQuietly(second);
+        } finally {
+            backend.close();
+        }
+    }
+
+    @Test
+    void execute_stalledBodyTimesOutAndGivesBackItsSlot() throws Exception {
+        wm.stubFor(get(urlEqualTo("/_cat/health")).willReturn(aResponse().withStatus(200).withBody("green")));
+        JdkHttpBackend backend = new JdkHttpBackend("http", null, null, null, 0, null, null,
+            new SSLContextBuilder().build(), 1, 5000, 3000, 500);
+        CountDownLatch done = new CountDownLatch(1);
+
+        // Sends the headers and part of the body, then nothing
+        try (ServerSocket server = new ServerSocket(0)) {
+            Thread stalling = new Thread(() -> {
+                try (Socket socket = server.accept()) {
+                    BufferedReader request = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                    while (!request.readLine().isEmpty()) {
+                        // skip the request headers
+                    }
+                    socket.getOutputStream().write("HTTP/1.1 200 OK\r\nContent-Length: 100\r\n\r\n{\"nodes\"".getBytes(StandardCharsets.US_ASCII));
+                    socket.getOutputStream().flush();
+                    done.await();
+                } catch (Exception e) {
+                    // the test fails on the client side
+                }
+            });
+            stalling.start();
+
+            HttpResponse stalled = backend.execute(new HttpHost("localhost", server.getLocalPort(), "http"), new HttpGet("/_nodes/stats"));
+            InputStream body = stalled.getEntity().getContent();
+            assertThrows(SocketTimeoutException.class, body::readAllBytes);
+
+            // released by the watchdog, the caller never closed the body
+            HttpResponse next = backend.execute(new HttpHost("localhost", wm.getPort(), "http"), new HttpGet("/_cat/health"));
+            assertEquals("green", EntityUtils.toString(next.getEntity()));
+        } finally {
+            done.countDown();
+            backend.close();
+        }
+    }
+
+    @Test
+    void execGet_gzipBodyIsDecodedByRestResult(@TempDir Path tempDir) throws Exception {
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write("{\"status\":\"green\"}".getBytes(StandardCharsets.UTF_8));
+        }
+        wm.stubFor(get(urlEqualTo("/_cluster/health")).withHeader("Accept-Encoding", equalTo("gzip"))
+            .willReturn(aResponse().withStatus(200).withHeader("Content-Encoding", "gzip").withBody(gzipped.toByteArray())));
+
+        Path outFile = tempDir.resolve("cluster_health.json");
+        RestResult result = new RestResult(restClient.execGet("/_cluster/health", 0, true), outFile.toString(), "/_cluster/health");
+
+        assertEquals("{\"status\":\"green\"}", Files.readString(outFile));
+        assertEquals(gzipped.size(), result.getTransferredBytes());
+    }
+
+    @Test
+    void getClient_bypassVerifyOnlyAppliesToItsOwnClient() {
+        wm.stubFor(get(urlEqualTo("/_cat/health")).willReturn(aResponse().withStatus(200).withBody("green")));
+
+        // WireMock's certificate is not issued for this address
+        try (RestClient tlsClient = RestClient.getClient("127.0.0.1", wm.getHttpsPort(), "https", null, null, null, 0,
+            null, null, null, null, true, null, 5000, 5000, 5000, RestClient.JDK_BACKEND)) {
+            assertEquals("green", tlsClient.execQuery("/_cat/health").toString());
+        }
+
+        assertNull(System.getProperty("jdk.internal.httpclient.disableHostnameVerification"));
+    }
+}
@@ -10,11 +10,19 @@ import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.AuthCache;
+import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.client.utils.HttpClientUtils;
 import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
 import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.HttpContext;
 import org.junit.jupiter.api.AfterEach;
@@ -26,8 +34,13 @@ import org.junit.jupiter.api.io.TempDir;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
 import static com.github.tomakehurst.wiremock.client.WireMock.containing;
@@ -45,6 +58,7 @@ import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -103,6 +117,16 @@ class RestClientTest {
         assertEquals("{\"status\":\"green\"}", result.toString());
     }
 
+    @Test
+    void execQuery_asksForCompressedResponse() {
+        wm.stubFor(get(urlEqualTo("/_cluster/health")).willReturn(aResponse().withStatus(200).withBody("{\"status\":\"green\"}")));
+
+        RestResult result = restClient.execQuery("/_cluster/health");
+
+        assertEquals("{\"status\":\"green\"}", result.toString());
+        wm.verify(getRequestedFor(urlEqualTo("/_cluster/health")).withHeader("Accept-Encoding", containing("gzip")));
+    }
+
     @Test
     void execQuery_withNon200Status_returnsInvalidResult() {
         wm.stubFor(get(urlEqualTo("/_missing")).willReturn(aResponse().withStatus(404).withBody("Not Found")));
@@ -219,6 +243,36 @@ class RestClientTest {
         }
     }
 
+    @Test
+    void execGet_concurrentRequestsDoNotShareExecutionState() throws Exception {
+        wm.stubFor(get(urlEqualTo("/_cat/health")).willReturn(aResponse().withStatus(200).withBody("green").withFixedDelay(50)));
+        HttpHost host = new HttpHost("localhost", wm.getPort(), "http");
+        AuthCache authCache = new BasicAuthCache();
+        authCache.put(host, new BasicScheme());
+        CredentialsProvider credentials = new BasicCredentialsProvider();
+        credentials.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials("elastic", "changeme"));
+        HttpClientContext shared = HttpClientContext.create();
+        shared.setAuthCache(authCache);
+        shared.setCredentialsProvider(credentials);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (RestClient client = new RestClient(HttpClients.createDefault(), host, shared, null)) {
+            List<Future<Integer>> statuses = new ArrayList<>();
+            for (int i = 0; i < 12; i++) {
+                statuses.add(executor.submit(() -> client.execQuery("/_cat/health").getStatus()));
+            }
+            for (Future<Integer> status : statuses) {
+                assertEquals(200, status.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertNull(shared.getRequest());
+        assertNull(shared.getAttribute(HttpClientContext.HTTP_ROUTE));
+        wm.verify(12, getRequestedFor(urlEqualTo("/_cat/health")).withHeader("Authorization", containing("Basic")));
+    }
+
     @Test
     void close_delegatesToUnderlyingHttpClient() {
         boolean[] closed = { false };
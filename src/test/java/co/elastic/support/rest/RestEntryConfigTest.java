@@ -13,6 +13,7 @@ import org.junit.jupiter.api.Test;
 
 import java.util.Map;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -71,4 +72,27 @@ class RestEntryConfigTest {
         assertTrue(fullEntries.size() >= lightEntries.size(),
                 "Full mode should have >= entries compared to light mode");
     }
+
+    @Test
+    void buildEntryMap_readsCostHint() throws DiagnosticException {
+        Map<String, Object> raw = load(Constants.ES_REST);
+        Map<String, RestEntry> entries = new RestEntryConfig("9.3.0").buildEntryMap(raw);
+
+        assertTrue(entries.get("cluster_state").getCost() > entries.get("cat_health").getCost(),
+                "Expected cluster_state to be scheduled ahead of cat_health");
+        assertEquals(0, entries.get("cat_health").getCost());
+    }
+
+    @Test
+    void buildEntryMap_readsTimeoutAndPriority() throws DiagnosticException {
+        Map<String, Object> raw = load(Constants.ES_REST);
+        Map<String, RestEntry> entries = new RestEntryConfig("9.3.0").buildEntryMap(raw);
+
+        assertTrue(entries.get("cluster_state").getTimeout() > entries.get("cat_health").getTimeout());
+        assertEquals(0, entries.get("nodes").getTimeout());
+        assertTrue(entries.get("segments").isLowPriority());
+        assertFalse(entries.get("cluster_state").isLowPriority());
+        // carried over when paged or space aware entries are copied
+        assertTrue(entries.get("segments").copyWithNewUrl("/_segments", "").isLowPriority());
+    }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.scrub;
+
+import co.elastic.support.Constants;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class Ipv4ScannerTest {
+
+    private static final Pattern IPV4 = Pattern.compile(Constants.IPv4Regex);
+
+    private final int[] octets = ScrubProcessor.randomIpv4Octets();
+    private final Ipv4Scanner scanner = new Ipv4Scanner(octets);
+
+    @Test
+    void find_matchesTheRegexOnRandomInput() {
+        Random random = new Random(42);
+        String alphabet = "0123456789....2255 x";
+        int[] match = new int[Ipv4Scanner.MATCH_SIZE];
+        for (int run = 0; run < 20000; run++) {
+            char[] text = new char[random.nextInt(40)];
+            for (int i = 0; i < text.length; i++) {
+                text[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+            }
+            String content = new String(text);
+
+            Matcher matcher = IPV4.matcher(content);
+            int from = 0;
+            while (matcher.find()) {
+                String found = matcher.group();
+                assertEquals(true, scanner.find(text, from, text.length, match), content);
+                assertEquals(found, content.substring(match[0], match[1]), content);
+                String[] parts = found.split("\\.");
+                for (int i = 0; i < 4; i++) {
+                    assertEquals(Integer.parseInt(parts[i]), match[2 + i], content);
+                }
+                from = match[1];
+            }
+            assertFalse(scanner.find(text, from, text.length, match), content);
+        }
+    }
+
+    @Test
+    void find_takesLongestOctetsThatStillMatch() {
+        int[] match = new int[Ipv4Scanner.MATCH_SIZE];
+        char[] text = "id 1234.5.6.789 and 10.0.256.1".toCharArray();
+
+        scanner.find(text, 0, text.length, match);
+        assertEquals("234.5.6.78", new String(text, match[0], match[1] - match[0]));
+
+        // 256 can only be read as 25 or 2, and neither is followed by a dot
+        assertFalse(scanner.find(text, match[1], text.length, match));
+    }
+
+    @Test
+    void replace_rewritesEveryOctetThroughTheTable() {
+        String content = "from 192.168.0.1 to 10.0.0.255, again 192.168.0.1";
+
+        String expected = "from " + octets[192] + "." + octets[168] + "." + octets[0] + "." + octets[1]
+                + " to " + octets[10] + "." + octets[0] + "." + octets[0] + "." + octets[255]
+                + ", again " + octets[192] + "." + octets[168] + "." + octets[0] + "." + octets[1];
+        assertEquals(expected, scanner.replace(content));
+        assertEquals(octets[10] + "." + octets[0] + "." + octets[0] + "." + octets[255], scanner.rewrite("10.0.0.255"));
+        assertEquals("no addresses here", scanner.replace("no addresses here"));
+        assertThrows(IllegalArgumentException.class, () -> scanner.rewrite("10.0.0"));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.scrub;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonScrubberTest {
+
+    private final JsonScrubber scrubber = new JsonScrubber(List.of("nodes.*.host"));
+
+    private String scrub(String content) throws Exception {
+        StringWriter writer = new StringWriter();
+        Reader rest = scrubber.scrub(new StringReader(content), writer,
+            value -> value.replace("secret", "hidden-value"), value -> "targeted");
+        assertNull(rest);
+        return writer.toString();
+    }
+
+    @Test
+    void scrub_rewritesOnlyMatchingStringsAndKeepsFormatting() throws Exception {
+        String content = "{\n  \"nodes\" : {\n    \"secret-id\" : {\n      \"name\" : \"the \\\"secret\\\" one\",\n"
+            + "      \"count\" : 12,\n      \"tags\" : [ \"secret\", \"plain\" ]\n    }\n  }\n}\n";
+
+        String result = scrub(content);
+
+        assertEquals(content.replace("secret", "hidden-value"), result);
+        JsonNode parsed = new ObjectMapper().readTree(result);
+        assertEquals("the \"hidden-value\" one", parsed.path("nodes").path("hidden-value-id").path("name").asText());
+    }
+
+    @Test
+    void scrub_replacesValuesUnderTargetedPaths() throws Exception {
+        String content = "{\"nodes\":{\"a\":{\"host\":\"db-01\",\"other\":\"db-01\"}},\"host\":\"db-01\"}";
+
+        String result = scrub(content);
+
+        assertEquals("{\"nodes\":{\"a\":{\"host\":\"targeted\",\"other\":\"db-01\"}},\"host\":\"db-01\"}", result);
+    }
+
+    @Test
+    void scrub_escapesReplacementsAndKeepsLargeDocumentsIntact() throws Exception {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 20000; i++) {
+            json.append("{\"id\":").append(i).append(",\"value\":\"secret ").append(i).append("\"},");
+        }
+        json.append("{}]");
+        StringWriter writer = new StringWriter();
+
+        scrubber.scrub(new StringReader(json.toString()), writer, value -> value.replace("secret", "a\"b"), value -> value);
+
+        JsonNode parsed = new ObjectMapper().readTree(writer.toString());
+        assertEquals(20001, parsed.size());
+        assertEquals("a\"b 19999", parsed.get(19999).path("value").asText());
+    }
+
+    @Test
+    void scrub_writesThroughLargeDocumentsWithNothingToReplace() throws Exception {
+        // About 30MB of JSON, generated as it is read, where no value changes
+        int documents = 500000;
+        long[] written = new long[1];
+        long[] maxHeldBack = new long[1];
+        Reader input = new Reader() {
+            private final StringBuilder pending = new StringBuilder("[");
+            private long read;
+            private int next;
+
+            @Override
+            public int read(char[] buffer, int off, int len) {
+                if (pending.length() == 0) {
+                    if (next > documents) {
+                        return -1;
+                    }
+                    pending.append(next < documents
+                        ? "{\"id\":" + next + ",\"name\":\"node-" + next + "\",\"roles\":[\"data\",\"ingest\"]},\n"
+                        : "{}]");
+                    next++;
+                }
+                int count = Math.min(len, pending.length());
+                pending.getChars(0, count, buffer, off);
+                pending.delete(0, count);
+                read += count;
+                maxHeldBack[0] = Math.max(maxHeldBack[0], read - written[0]);
+                return count;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Writer output = new Writer() {
+            @Override
+            public void write(char[] buffer, int off, int len) {
+                written[0] += len;
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        assertNull(scrubber.scrub(input, output, value -> value, value -> value));
+
+        assertTrue(written[0] > 30_000_000L, "written " + written[0]);
+        assertTrue(maxHeldBack[0] < 256 * 1024, "held back " + maxHeldBack[0]);
+    }
+
+    @Test
+    void scrub_returnsUnwrittenContentWhenNotJson() throws Exception {
+        String content = "{\"a\":\"secret\"} not json \"secret\"";
+        StringWriter writer = new StringWriter();
+
+        Reader rest = scrubber.scrub(new StringReader(content), writer, value -> value.replace("secret", "x"), value -> value);
+
+        assertNotNull(rest);
+        StringWriter remainder = new StringWriter();
+        rest.transferTo(remainder);
+        assertEquals(content.replaceFirst("secret", "x"), writer + remainder.toString());
+        assertFalse(writer.toString().contains("secret"));
+    }
+}
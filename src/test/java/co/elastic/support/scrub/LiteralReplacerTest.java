@@ -0,0 +1,62 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.scrub;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class LiteralReplacerTest {
+
+    @Test
+    void replace_treatsMetacharactersLiterally() {
+        LiteralReplacer replacer = new LiteralReplacer(Map.of("node.1(a)+", "x"));
+
+        assertEquals("x and node11(a)+", replacer.replace("node.1(a)+ and node11(a)+"));
+    }
+
+    @Test
+    void replace_prefersLeftmostThenLongest() {
+        Map<String, String> replacements = new HashMap<>();
+        replacements.put("node", "A");
+        replacements.put("node-1", "B");
+        replacements.put("de-1x", "C");
+        LiteralReplacer replacer = new LiteralReplacer(replacements);
+
+        assertEquals("B, A-2, B0", replacer.replace("node-1, node-2, node-10"));
+        assertEquals("Bx", replacer.replace("node-1x"));
+        assertEquals("moC", replacer.replace("mode-1x"));
+    }
+
+    @Test
+    void replace_matchesSameAsSequentialReplaceForDistinctValues() {
+        Map<String, String> replacements = new HashMap<>();
+        StringBuilder content = new StringBuilder();
+        for (int i = 100; i < 200; i++) {
+            replacements.put("10.20.30." + i, "addr" + i);
+            content.append("bound ").append("10.20.30.").append(i).append(", 10.20.30.").append(299 - i).append('\n');
+        }
+        String expected = content.toString();
+        for (Map.Entry<String, String> entry : replacements.entrySet()) {
+            expected = expected.replace(entry.getKey(), entry.getValue());
+        }
+
+        assertEquals(expected, new LiteralReplacer(replacements).replace(content.toString()));
+    }
+
+    @Test
+    void replace_returnsInputWithoutMatches() {
+        String content = "nothing to see";
+
+        assertSame(content, new LiteralReplacer(Map.of("secret", "x")).replace(content));
+        assertSame(content, new LiteralReplacer(Map.of()).replace(content));
+    }
+}
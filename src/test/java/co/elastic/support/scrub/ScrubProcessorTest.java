@@ -0,0 +1,246 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.scrub;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScrubProcessorTest {
+
+    private ScrubProcessor processor;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        processor = new ScrubProcessor();
+    }
+
+    private String wholeContent(String content, String entry) {
+        return processor.processContent(content, entry);
+    }
+
+    private String streamed(String content, String entry, int chunkSize) throws Exception {
+        StringWriter writer = new StringWriter();
+        processor.processStream(new StringReader(content), writer, entry, chunkSize);
+        return writer.toString();
+    }
+
+    @Test
+    void processStream_matchesWholeContentAcrossChunkBoundaries() throws Exception {
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            log.append("[2024-01-01] node bound to 10.100.").append(100 + i % 50).append('.').append(100 + i % 100)
+                .append(" mac 00:1A:2B:3C:4D:").append(String.format("%02X", i)).append('\n');
+        }
+        String content = log.toString();
+
+        String result = streamed(content, "logs/server.log", 64);
+
+        assertEquals(wholeContent(content, "logs/server.log"), result);
+        assertFalse(result.contains("10.100."));
+    }
+
+    @Test
+    void processStream_parallelChunksAreWrittenInOrder() throws Exception {
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            log.append("line ").append(i).append(" from 172.16.").append(100 + i % 100).append('.').append(100 + i % 150)
+                .append(" user-").append(i).append('\n');
+        }
+        String content = log.toString();
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        StringWriter writer = new StringWriter();
+        try {
+            processor.processStream(new StringReader(content), writer, "logs/server.log", pool, 256);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(wholeContent(content, "logs/server.log"), writer.toString());
+    }
+
+    @Test
+    void processStream_cutsLongLinesAtDelimiters() throws Exception {
+        StringBuilder json = new StringBuilder("{\"nodes\":[");
+        for (int i = 0; i < 300; i++) {
+            json.append("{\"ip\":\"192.168.").append(100 + i % 150).append(".107\"},");
+        }
+        json.append("{}]}");
+        String content = json.toString();
+
+        String result = streamed(content, "nodes.json", 32);
+
+        assertEquals(wholeContent(content, "nodes.json"), result);
+        assertFalse(result.contains("192.168."));
+    }
+
+    @Test
+    void processJson_replacesPatternsAndTargetedPaths() throws Exception {
+        String content = "{\"nodes\":{\"n1\":{\"host\":\"db-01.internal\",\"ip\":\"10.20.30.40\","
+            + "\"transport_address\":\"10.20.30.40:9300\",\"roles\":[\"data\"]}}}";
+
+        StringWriter writer = new StringWriter();
+        processor.processJson(new StringReader(content), writer, "nodes.json");
+        String result = writer.toString();
+
+        assertFalse(result.contains("db-01.internal"));
+        assertFalse(result.contains("10.20.30.40"));
+        assertTrue(result.contains("\"roles\":[\"data\"]"));
+        JsonNode node = new ObjectMapper().readTree(result).path("nodes").path("n1");
+        assertEquals(node.path("ip").asText() + ":9300", node.path("transport_address").asText());
+        assertTrue(processor.isJson("nodes.json"));
+        assertFalse(processor.isJson("cat/cat_nodes.txt"));
+    }
+
+    @Test
+    void processContent_replacesEachAddressWhole() {
+        String content = "bound to 10.0.1.1 and 10.0.1.10, published 10.0.1.1";
+
+        String result = processor.processContent(content, "nodes.json");
+
+        String[] addresses = result.substring("bound to ".length()).split(" and |, published ");
+        assertEquals(3, addresses.length);
+        assertEquals(addresses[0], addresses[2]);
+        assertNotEquals(addresses[0], addresses[1]);
+        assertFalse(result.contains("10.0.1"));
+    }
+
+    @Test
+    void processContent_sameResultAsReplacingEachValueOnItsOwn() {
+        String content = "{\"ip\":\"172.16.100.200\",\"mac\":\"0A:1B:2C:3D:4E:5F\",\"ip6\":\"fe80::1ff:fe23:4567:890a\"}";
+
+        String result = processor.processContent(content, "nodes.json");
+
+        assertEquals("{\"ip\":\"" + processor.processContent("172.16.100.200", "nodes.json")
+                + "\",\"mac\":\"" + processor.processContent("0A:1B:2C:3D:4E:5F", "nodes.json")
+                + "\",\"ip6\":\"" + processor.processContent("fe80::1ff:fe23:4567:890a", "nodes.json") + "\"}",
+            result);
+        assertFalse(result.contains("172.16.100.200"));
+    }
+
+    @Test
+    void processContent_replacesNodeNamesLiterally() throws Exception {
+        ScrubProcessor withNodes = new ScrubProcessor(
+            "{\"cluster_name\":\"prod\",\"nodes\":{\"Xy7zQ\":{\"name\":\"es.node(1)\"}}}");
+
+        String result = withNodes.processContent("es.node(1) es-node(1) esXnode(1)", "nodes.json");
+
+        assertEquals(withNodes.generateToken("es.node(1)") + " es-node(1) esXnode(1)", result);
+    }
+
+    @Test
+    void processContent_keepsNumberedBackReferencesOfTokens() {
+        List<ScrubTokenEntry> tokens = List.of(
+            new ScrubTokenEntry("(secret)-\\d+", List.of(), List.of()),
+            new ScrubTokenEntry("(\\w+)=\\1", List.of(), List.of()));
+
+        String result = processor.processContent("user=user secret-42 user=other", tokens);
+
+        String[] words = result.split(" ");
+        assertEquals(processor.generateToken("user=user"), words[0]);
+        assertEquals(processor.generateToken("secret-42"), words[1]);
+        assertEquals("user=other", words[2]);
+    }
+
+    @Test
+    void ruleSet_requiresWholeNameToMatchOneRule() {
+        ScrubRuleSet rules = new ScrubRuleSet(List.of(".*slowlog.*\\.log", "manifest.json"));
+
+        assertTrue(rules.matches("logs/es_index_search_slowlog.log"));
+        assertTrue(rules.matches("manifest.json"));
+        assertFalse(rules.matches("diagnostic_manifest.json"));
+        assertFalse(rules.matches("logs/es_index_search_slowlog.log.1"));
+        assertFalse(new ScrubRuleSet(List.of()).matches("manifest.json"));
+    }
+
+    @Test
+    void ruleSet_matchesGzippedEntriesWithAndWithoutTheSuffix() {
+        ScrubRuleSet rules = new ScrubRuleSet(List.of(".*elasticsearch\\.log", "manifest\\.json\\.gz"));
+
+        assertTrue(rules.matches("logs/elasticsearch.log"));
+        assertTrue(rules.matches("logs/elasticsearch.log.gz"));
+        assertTrue(rules.matches("manifest.json.gz"));
+        assertFalse(rules.matches("manifest.json"));
+        assertFalse(rules.matches("logs/elasticsearch.log.1"));
+    }
+
+    @Test
+    void isExclude_usesGlobalExcludeRules() {
+        assertTrue(processor.isExclude("logs/gc.log"));
+        assertFalse(processor.isExclude("logs/server.log"));
+    }
+
+    @Test
+    void processors_doNotShareState() throws Exception {
+        ScrubProcessor withNodes = new ScrubProcessor("{\"cluster_name\":\"billing-prod\",\"nodes\":{}}");
+        ScrubProcessor other = new ScrubProcessor();
+
+        assertFalse(withNodes.processContent("cluster billing-prod", "nodes.json").contains("billing-prod"));
+        assertEquals("cluster billing-prod", other.processContent("cluster billing-prod", "nodes.json"));
+        assertEquals(processor.tokensFor("nodes.json"), other.tokensFor("nodes.json"));
+    }
+
+    @Test
+    void processContent_concurrentCallsAgreeOnReplacements() throws Exception {
+        String content = "10.1.2.3 10.1.2.4 10.1.2.3 aa:bb:cc:dd:ee:ff";
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                results.add(executor.submit(() -> processor.processContent(content, "nodes.json")));
+            }
+            String first = results.get(0).get();
+            for (Future<String> result : results) {
+                assertEquals(first, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void processContent_countsHitsPerRule() {
+        processor.processContent("10.1.2.3 10.1.2.4 aa:bb:cc:dd:ee:ff", "nodes.json");
+
+        ScrubStats stats = processor.getStats();
+        ScrubStats.Rule ipv4 = stats.getRules().stream().filter(r -> r.getName().equals("ipv4")).findFirst().get();
+        ScrubStats.Rule mac = stats.getRules().stream().filter(r -> r.getName().equals("mac")).findFirst().get();
+        assertEquals(2, ipv4.getHits());
+        assertEquals(16, ipv4.getMatchedChars());
+        assertEquals(1, mac.getHits());
+        assertEquals(35, stats.getScannedChars());
+    }
+
+    @Test
+    void toMap_estimatesRuleTimesOnlyWhenAsked() throws Exception {
+        processor.processContent("10.1.2.3 aa:bb:cc:dd:ee:ff", "nodes.json");
+        ScrubProcessor timed = new ScrubProcessor(null, null, true);
+        timed.processContent("10.1.2.3 aa:bb:cc:dd:ee:ff", "nodes.json");
+
+        Map<?, ?> rule = (Map<?, ?>) ((List<?>) processor.getStats().toMap().get("rules")).get(0);
+        assertFalse(rule.containsKey("estimatedMillis"));
+        Map<?, ?> timedRule = (Map<?, ?>) ((List<?>) timed.getStats().toMap().get("rules")).get(0);
+        assertTrue(timedRule.containsKey("estimatedMillis"));
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.scrub;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScrubServiceTest {
+
+    private static final String NODES = "{\"cluster_name\":\"billing-prod\",\"nodes\":{}}";
+    private static final String OLD_LOG = "[2024-01-01] billing-prod bound to 10.20.30.41\n".repeat(50);
+    private static final String GC_LOG = "[gc] pause 10.0.0.7 young 12ms\n".repeat(100);
+    // Not valid UTF-8, so decoding and encoding it again would change it
+    private static final byte[] HEAP = {'J', 'A', 'V', 'A', ' ', 'P', 'R', 'O', 'F', 'I', 'L', 'E', 0, (byte) 0xff, (byte) 0xfe};
+
+    private static void addEntry(ZipArchiveOutputStream zip, String name, byte[] content) throws IOException {
+        zip.putArchiveEntry(new ZipArchiveEntry(name));
+        zip.write(content);
+        zip.closeArchiveEntry();
+    }
+
+    private static File writeBundle(Path dir) throws IOException {
+        File bundle = dir.resolve("api-diagnostics-test.zip").toFile();
+        try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(bundle)) {
+            zip.putArchiveEntry(new ZipArchiveEntry("api-diagnostics-test/"));
+            zip.closeArchiveEntry();
+            addEntry(zip, "api-diagnostics-test/nodes.json", NODES.getBytes(StandardCharsets.UTF_8));
+            addEntry(zip, "api-diagnostics-test/cat/cat_nodes.txt",
+                "10.20.30.40 billing-prod instance-1\n".getBytes(StandardCharsets.UTF_8));
+            addEntry(zip, "api-diagnostics-test/logs/gc.log", GC_LOG.getBytes(StandardCharsets.UTF_8));
+
+            addEntry(zip, "api-diagnostics-test/logs/old.log.gz", gzip(OLD_LOG));
+            addEntry(zip, "api-diagnostics-test/logs/old.json.1.gz", gzip(NODES));
+            addEntry(zip, "api-diagnostics-test/heap/heap.hprof.gz", gzip(HEAP));
+
+            ByteArrayOutputStream nested = new ByteArrayOutputStream();
+            try (ZipArchiveOutputStream nestedZip = new ZipArchiveOutputStream(nested)) {
+                addEntry(nestedZip, "server/server.log.gz", gzip(OLD_LOG));
+                addEntry(nestedZip, "server/heap.hprof.gz", gzip(HEAP));
+            }
+            addEntry(zip, "api-diagnostics-test/logs/archived.zip", nested.toByteArray());
+        }
+        return bundle;
+    }
+
+    private static byte[] gzip(String content) throws IOException {
+        return gzip(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream gz = new GZIPOutputStream(bytes)) {
+            gz.write(content);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String gunzip(byte[] content) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(content))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void assertScrubbed(String log) {
+        assertEquals(50, log.split("\n").length);
+        assertFalse(log.contains("10.20.30.41"));
+        assertFalse(log.contains("billing-prod"));
+    }
+
+    private static byte[] readBytes(ZipFile zip, String name) throws IOException {
+        ZipArchiveEntry entry = zip.getEntry(name);
+        assertNotNull(entry, name);
+        return zip.getInputStream(entry).readAllBytes();
+    }
+
+    private static String read(ZipFile zip, String name) throws IOException {
+        return new String(readBytes(zip, name), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void exec_scrubsZipIntoNewArchiveWithoutScrubDir(@TempDir Path tempDir) throws Exception {
+        File bundle = writeBundle(tempDir);
+        Path output = Files.createDirectory(tempDir.resolve("out"));
+        ScrubInputs inputs = new ScrubInputs();
+        inputs.scrub = bundle.getAbsolutePath();
+        inputs.validateScrubInput(inputs.scrub);
+        inputs.outputDir = output.toString();
+        inputs.workers = 2;
+
+        File archive = new ScrubService().exec(inputs);
+
+        assertTrue(archive.getName().startsWith("scrubbed-api-diagnostics-test-"));
+        String root = archive.getName().replace(".zip", "") + "/";
+        try (ZipFile zip = ZipFile.builder().setFile(archive).get()) {
+            String nodes = read(zip, root + "nodes.json");
+            assertFalse(nodes.contains("billing-prod"));
+            String cat = read(zip, root + "cat/cat_nodes.txt");
+            assertFalse(cat.contains("10.20.30.40"));
+            assertFalse(cat.contains("billing-prod"));
+            // excluded from scrubbing and copied as is
+            assertEquals(GC_LOG, read(zip, root + "logs/gc.log"));
+            assertScrubbed(gunzip(readBytes(zip, root + "logs/old.log.gz")));
+            assertFalse(gunzip(readBytes(zip, root + "logs/old.json.1.gz")).contains("billing-prod"));
+            // can't be scrubbed as text without corrupting it
+            assertNull(zip.getEntry(root + "heap/heap.hprof.gz"));
+
+            byte[] nested = readBytes(zip, root + "logs/archived.zip");
+            try (ZipArchiveInputStream nestedZip = new ZipArchiveInputStream(new ByteArrayInputStream(nested))) {
+                ZipArchiveEntry entry = nestedZip.getNextEntry();
+                assertEquals("server/server.log.gz", entry.getName());
+                assertScrubbed(gunzip(nestedZip.readAllBytes()));
+                assertNull(nestedZip.getNextEntry());
+            }
+
+            JsonNode stats = new ObjectMapper().readTree(read(zip, root + "scrub-stats.json"));
+            assertEquals(7, stats.path("totals").path("entries").asInt());
+            assertTrue(stats.path("rules").isArray());
+            assertTrue(stats.path("rules").size() > 0);
+        }
+        // nothing besides the archive and the log is left behind
+        try (var files = Files.list(output)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    void exec_leavesFailedEntryOutOfArchive(@TempDir Path tempDir) throws Exception {
+        File bundle = tempDir.resolve("api-diagnostics-test.zip").toFile();
+        byte[] log = gzip(OLD_LOG.repeat(20));
+        try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(bundle)) {
+            addEntry(zip, "api-diagnostics-test/nodes.json", NODES.getBytes(StandardCharsets.UTF_8));
+            // cut off part way through, so it fails after some of it has been scrubbed
+            addEntry(zip, "api-diagnostics-test/logs/broken.log.gz", Arrays.copyOf(log, log.length / 2));
+        }
+        Path output = Files.createDirectory(tempDir.resolve("out"));
+        ScrubInputs inputs = new ScrubInputs();
+        inputs.scrub = bundle.getAbsolutePath();
+        inputs.validateScrubInput(inputs.scrub);
+        inputs.outputDir = output.toString();
+        inputs.workers = 2;
+
+        File archive = new ScrubService().exec(inputs);
+
+        String root = archive.getName().replace(".zip", "") + "/";
+        try (ZipFile zip = ZipFile.builder().setFile(archive).get()) {
+            assertFalse(read(zip, root + "nodes.json").contains("billing-prod"));
+            assertNull(zip.getEntry(root + "logs/broken.log.gz"));
+        }
+        // no scratch file of the failed entry is left behind
+        try (var files = Files.list(output)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    void exec_leavesCorruptGzipAndZipOutOfScrubbedDirectory(@TempDir Path tempDir) throws Exception {
+        Path input = Files.createDirectories(tempDir.resolve("api-diagnostics-test"));
+        Files.writeString(input.resolve("nodes.json"), NODES);
+        byte[] log = gzip(OLD_LOG.repeat(20));
+        Files.write(input.resolve("broken.log.gz"), Arrays.copyOf(log, log.length / 2));
+        ByteArrayOutputStream nested = new ByteArrayOutputStream();
+        try (ZipArchiveOutputStream nestedZip = new ZipArchiveOutputStream(nested)) {
+            addEntry(nestedZip, "server/server.log.gz", Arrays.copyOf(log, log.length / 2));
+        }
+        Files.write(input.resolve("archived.zip"), nested.toByteArray());
+        Path output = Files.createDirectory(tempDir.resolve("out"));
+        ScrubInputs inputs = new ScrubInputs();
+        inputs.scrub = input.toString();
+        inputs.validateScrubInput(inputs.scrub);
+        inputs.outputDir = output.toString();
+        inputs.workers = 2;
+
+        File archive = new ScrubService().exec(inputs);
+
+        try (ZipFile zip = ZipFile.builder().setFile(archive).get()) {
+            String root = archive.getName().replace(".zip", "") + "/";
+            assertNotNull(zip.getEntry(root + "nodes.json"));
+            assertNull(zip.getEntry(root + "broken.log.gz"));
+            assertNull(zip.getEntry(root + "archived.zip"));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.scrub;
+
+import co.elastic.support.diagnostics.DiagnosticException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TokenDictionaryTest {
+
+    @Test
+    void reopen_returnsStoredReplacementsAndOctets(@TempDir Path tempDir) throws Exception {
+        String file = tempDir.resolve("scrub.dict").toString();
+        int[] octets;
+        try (TokenDictionary dictionary = TokenDictionary.open(file)) {
+            octets = dictionary.getIpv4Octets();
+            for (int i = 0; i < 2000; i++) {
+                dictionary.computeIfAbsent(TokenDictionary.TOKEN, "value-" + i, v -> "token-" + v);
+            }
+            dictionary.computeIfAbsent(TokenDictionary.IPV4, "10.0.0.1", v -> "99.1.2.3");
+        }
+
+        try (TokenDictionary dictionary = TokenDictionary.open(file)) {
+            assertEquals(2001, dictionary.size());
+            assertArrayEquals(octets, dictionary.getIpv4Octets());
+            assertEquals("token-value-1234", dictionary.get(TokenDictionary.TOKEN, "value-1234"));
+            assertEquals("99.1.2.3", dictionary.computeIfAbsent(TokenDictionary.IPV4, "10.0.0.1", v -> "other"));
+            // entries are kept apart by type
+            assertNull(dictionary.get(TokenDictionary.MAC, "10.0.0.1"));
+        }
+    }
+
+    @Test
+    void open_dropsIncompleteLastEntry(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("scrub.dict");
+        try (TokenDictionary dictionary = TokenDictionary.open(file.toString())) {
+            dictionary.computeIfAbsent(TokenDictionary.TOKEN, "first", v -> "aaaaa");
+            dictionary.computeIfAbsent(TokenDictionary.TOKEN, "second", v -> "bbbbbb");
+        }
+        long complete = Files.size(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(complete - 3);
+        }
+
+        try (TokenDictionary dictionary = TokenDictionary.open(file.toString())) {
+            assertEquals(1, dictionary.size());
+            assertEquals("aaaaa", dictionary.get(TokenDictionary.TOKEN, "first"));
+            assertNull(dictionary.get(TokenDictionary.TOKEN, "second"));
+            dictionary.computeIfAbsent(TokenDictionary.TOKEN, "second", v -> "cccccc");
+        }
+        try (TokenDictionary dictionary = TokenDictionary.open(file.toString())) {
+            assertEquals("cccccc", dictionary.get(TokenDictionary.TOKEN, "second"));
+        }
+    }
+
+    @Test
+    void open_truncatesRecordCutShortInItsKey(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("scrub.dict");
+        try (TokenDictionary dictionary = TokenDictionary.open(file.toString())) {
+            dictionary.computeIfAbsent(TokenDictionary.TOKEN, "first", v -> "aaaaa");
+        }
+        long firstEnd = Files.size(file);
+        try (TokenDictionary dictionary = TokenDictionary.open(file.toString())) {
+            dictionary.computeIfAbsent(TokenDictionary.MAC, "aa:bb:cc:dd:ee:ff", v -> "bbbbbb");
+        }
+        // type, key length and part of the key of the second record
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(firstEnd + 1 + Integer.BYTES + 4);
+        }
+
+        try (TokenDictionary dictionary = TokenDictionary.open(file.toString())) {
+            assertEquals(firstEnd, Files.size(file));
+            assertEquals(1, dictionary.size());
+            assertEquals("aaaaa", dictionary.get(TokenDictionary.TOKEN, "first"));
+            dictionary.computeIfAbsent(TokenDictionary.MAC, "aa:bb:cc:dd:ee:ff", v -> "cccccc");
+        }
+        try (TokenDictionary dictionary = TokenDictionary.open(file.toString())) {
+            assertEquals(2, dictionary.size());
+            assertEquals("cccccc", dictionary.get(TokenDictionary.MAC, "aa:bb:cc:dd:ee:ff"));
+        }
+    }
+
+    @Test
+    void open_refusesSmallFileThatIsNotADictionary(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("notes.txt");
+        Files.writeString(file, "not a dictionary");
+
+        assertThrows(DiagnosticException.class, () -> TokenDictionary.open(file.toString()));
+        assertEquals("not a dictionary", Files.readString(file));
+    }
+
+    @Test
+    void open_refusesDictionaryInUse(@TempDir Path tempDir) throws Exception {
+        String file = tempDir.resolve("scrub.dict").toString();
+        try (TokenDictionary dictionary = TokenDictionary.open(file)) {
+            DiagnosticException e = assertThrows(DiagnosticException.class, () -> TokenDictionary.open(file));
+            assertEquals("Token dictionary is in use by another scrub run", e.getCause().getMessage());
+        }
+        // released once closed
+        TokenDictionary.open(file).close();
+    }
+
+    @Test
+    void processors_sharingDictionaryReplaceValuesTheSameWay(@TempDir Path tempDir) throws Exception {
+        String file = tempDir.resolve("scrub.dict").toString();
+        String nodes = "{\"cluster_name\":\"billing-prod\",\"nodes\":{}}";
+        String content = "{\"ip\":\"10.20.30.40\",\"cluster\":\"billing-prod\"}";
+
+        String first;
+        try (TokenDictionary dictionary = TokenDictionary.open(file)) {
+            first = new ScrubProcessor(nodes, dictionary).processContent(content, "nodes.json");
+        }
+        String second;
+        try (TokenDictionary dictionary = TokenDictionary.open(file)) {
+            second = new ScrubProcessor(nodes, dictionary).processContent(content, "nodes.json");
+        }
+
+        assertEquals(first, second);
+        assertEquals(-1, first.indexOf("10.20.30.40"));
+        assertEquals(-1, first.indexOf("billing-prod"));
+    }
+}
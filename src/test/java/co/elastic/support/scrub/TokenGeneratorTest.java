@@ -0,0 +1,57 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.scrub;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenGeneratorTest {
+
+    @Test
+    void uuid_keepsOriginalFormat() {
+        String value = "a-node-name-that-is-longer-than-thirty-two-characters";
+        String hex = UUID.nameUUIDFromBytes(value.getBytes(StandardCharsets.UTF_8)).toString().replace("-", "");
+
+        String token = new UuidTokenGenerator().generate(value);
+
+        assertEquals(value.length(), token.length());
+        assertEquals(hex + hex.substring(0, value.length() - 32), token);
+        assertEquals("", new UuidTokenGenerator().generate(""));
+    }
+
+    @Test
+    void hmac_sameKeyGivesSameTokens() {
+        byte[] key = new byte[32];
+        HmacTokenGenerator first = new HmacTokenGenerator(key);
+        HmacTokenGenerator second = new HmacTokenGenerator(key);
+
+        String token = first.generate("prod-cluster");
+
+        assertEquals(token, second.generate("prod-cluster"));
+        assertEquals("prod-cluster".length(), token.length());
+        assertTrue(token.matches("[0-9a-f]+"));
+        assertEquals(64, first.generate("x".repeat(100)).length());
+    }
+
+    @Test
+    void hmac_keyFileMakesTokensStableAcrossRuns(@TempDir Path tempDir) throws Exception {
+        String keyFile = tempDir.resolve("scrub.key").toString();
+
+        String token = HmacTokenGenerator.fromKeyFile(keyFile).generate("10.0.0.1");
+
+        assertEquals(token, HmacTokenGenerator.fromKeyFile(keyFile).generate("10.0.0.1"));
+        assertNotEquals(token, HmacTokenGenerator.fromKeyFile("").generate("10.0.0.1"));
+    }
+}
@@ -0,0 +1,496 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.testutil;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates the responses of a cluster of any size, in the shape the APIs in
+ * elastic-rest.yml and the paged APIs in kibana-rest.yml return them, so the
+ * collection, scrub and import paths can be run against thousands of nodes and
+ * hundreds of thousands of shards without a real cluster.
+ * <p>
+ * Everything is derived from the seed, so the same cluster always produces the
+ * same bytes. Responses are streamed to a writer, since at that scale the cluster
+ * state alone runs to hundreds of megabytes.
+ */
+public class SyntheticCluster {
+
+    private static final JsonFactory factory = new JsonFactory();
+
+    public final int nodes;
+    public final int indices;
+    public final int shards;
+    public final int replicas;
+    public final long seed;
+    public final String clusterName = "synthetic-prod";
+    public final String clusterUuid;
+    public final String version;
+
+    private final String[] nodeIds;
+    private final String[] nodeNames;
+    private final String[] nodeIps;
+
+    public SyntheticCluster(int nodes, int indices) {
+        this(nodes, indices, 1, 1, 42);
+    }
+
+    public SyntheticCluster(int nodes, int indices, int shards, int replicas, long seed) {
+        this(nodes, indices, shards, replicas, seed, "8.13.4");
+    }
+
+    public SyntheticCluster(int nodes, int indices, int shards, int replicas, long seed, String version) {
+        if (nodes < 1 || nodes > 65536 * 256) {
+            throw new IllegalArgumentException("Nodes must be between 1 and " + 65536 * 256);
+        }
+        this.nodes = nodes;
+        this.indices = indices;
+        this.shards = shards;
+        this.replicas = replicas;
+        this.seed = seed;
+        this.version = version;
+
+        Random random = new Random(seed);
+        clusterUuid = uuid(random);
+        nodeIds = new String[nodes];
+        nodeNames = new String[nodes];
+        nodeIps = new String[nodes];
+        for (int i = 0; i < nodes; i++) {
+            nodeIds[i] = uuid(random);
+            nodeNames[i] = String.format("instance-%010d", i);
+            // Unique per node, and spread over the whole range the IPv4 rules have to handle
+            nodeIps[i] = "10." + (i >> 16) + "." + ((i >> 8) & 255) + "." + (i & 255);
+        }
+    }
+
+    public int shardCopies() {
+        return indices * shards * (1 + replicas);
+    }
+
+    public String nodeId(int node) {
+        return nodeIds[node];
+    }
+
+    public String nodeName(int node) {
+        return nodeNames[node];
+    }
+
+    public String nodeIp(int node) {
+        return nodeIps[node];
+    }
+
+    public String indexName(int index) {
+        return String.format("logs-app-%06d", index);
+    }
+
+    // Copies go round robin over the nodes, each replica on the node after the previous copy
+    private int nodeFor(int index, int shard, int copy) {
+        return (int) (((long) index * shards + shard + copy) % nodes);
+    }
+
+    /**
+     * The response to /, as used for the version check.
+     */
+    public String root() {
+        return render(generator -> {
+            generator.writeStartObject();
+            generator.writeStringField("name", nodeNames[0]);
+            generator.writeStringField("cluster_name", clusterName);
+            generator.writeStringField("cluster_uuid", clusterUuid);
+            generator.writeObjectFieldStart("version");
+            generator.writeStringField("number", version);
+            generator.writeStringField("build_flavor", "default");
+            generator.writeEndObject();
+            generator.writeStringField("tagline", "You Know, for Search");
+            generator.writeEndObject();
+        });
+    }
+
+    public String nodesJson() {
+        return render(this::writeNodes);
+    }
+
+    public String nodesStatsJson() {
+        return render(this::writeNodesStats);
+    }
+
+    public String clusterStateJson() {
+        return render(this::writeClusterState);
+    }
+
+    public String catShards() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeCatShards(writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    public void writeNodes(Writer writer) throws IOException {
+        try (JsonGenerator generator = factory.createGenerator(writer)) {
+            writeNodes(generator);
+        }
+    }
+
+    public void writeNodesStats(Writer writer) throws IOException {
+        try (JsonGenerator generator = factory.createGenerator(writer)) {
+            writeNodesStats(generator);
+        }
+    }
+
+    public void writeClusterState(Writer writer) throws IOException {
+        try (JsonGenerator generator = factory.createGenerator(writer)) {
+            writeClusterState(generator);
+        }
+    }
+
+    public void writeCatShards(Writer writer) throws IOException {
+        Random random = new Random(seed);
+        writer.write("index            shard prirep state      docs  store ip             node\n");
+        for (int index = 0; index < indices; index++) {
+            for (int shard = 0; shard < shards; shard++) {
+                long docs = random.nextInt(50_000_000);
+                for (int copy = 0; copy <= replicas; copy++) {
+                    int node = nodeFor(index, shard, copy);
+                    writer.write(String.format("%-16s %5d %-6s %-7s %10d %6s %-14s %s\n", indexName(index), shard,
+                            copy == 0 ? "p" : "r", "STARTED", docs, docs / 20_000 + "mb", nodeIps[node], nodeNames[node]));
+                }
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * A page of one of the paged Kibana APIs, with the total the diagnostic uses to
+     * work out how many pages to ask for.
+     */
+    public String kibanaPage(String perPageField, int total, int page, int perPage) {
+        return render(generator -> {
+            Random random = new Random(seed + page);
+            generator.writeStartObject();
+            generator.writeNumberField("page", page);
+            generator.writeNumberField(perPageField, perPage);
+            generator.writeNumberField("total", total);
+            generator.writeArrayFieldStart("data");
+            int first = (page - 1) * perPage;
+            for (int i = first; i < Math.min(total, first + perPage); i++) {
+                int node = i % nodes;
+                generator.writeStartObject();
+                generator.writeStringField("id", uuid(random));
+                generator.writeStringField("name", "item-" + i);
+                generator.writeStringField("host", nodeNames[node]);
+                generator.writeStringField("ip", nodeIps[node]);
+                generator.writeBooleanField("enabled", i % 5 != 0);
+                generator.writeStringField("updated_at", "2024-05-01T10:15:30.123Z");
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        });
+    }
+
+    /**
+     * Writes the responses as a diagnostic directory, under the names the diagnostic
+     * gives them, for the scrub and import paths.
+     */
+    public void writeBundle(Path dir) throws IOException {
+        Files.createDirectories(dir.resolve("cat"));
+        Files.writeString(dir.resolve("version.json"), root());
+        try (Writer writer = Files.newBufferedWriter(dir.resolve("nodes.json"), StandardCharsets.UTF_8)) {
+            writeNodes(writer);
+        }
+        try (Writer writer = Files.newBufferedWriter(dir.resolve("nodes_stats.json"), StandardCharsets.UTF_8)) {
+            writeNodesStats(writer);
+        }
+        try (Writer writer = Files.newBufferedWriter(dir.resolve("cluster_state.json"), StandardCharsets.UTF_8)) {
+            writeClusterState(writer);
+        }
+        try (Writer writer = Files.newBufferedWriter(dir.resolve("cat/cat_shards.txt"), StandardCharsets.UTF_8)) {
+            writeCatShards(writer);
+        }
+    }
+
+    /**
+     * Writes a monitoring export with one node_stats document per node for each
+     * interval, one document per line, as the monitoring import reads them.
+     */
+    public void writeMonitoringExport(Path file, int intervals) throws IOException {
+        FileUtils.forceMkdirParent(file.toFile());
+        Random random = new Random(seed);
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+             JsonGenerator generator = factory.createGenerator(writer)) {
+            generator.setRootValueSeparator(new SerializedString("\n"));
+            for (int interval = 0; interval < intervals; interval++) {
+                for (int node = 0; node < nodes; node++) {
+                    generator.writeStartObject();
+                    generator.writeStringField("cluster_uuid", clusterUuid);
+                    generator.writeStringField("cluster_name", clusterName);
+                    generator.writeStringField("timestamp", String.format("2024-05-01T%02d:%02d:%02d.000Z",
+                            interval / 360 % 24, interval / 6 % 60, interval % 6 * 10));
+                    generator.writeNumberField("interval_ms", 10000);
+                    generator.writeStringField("type", "node_stats");
+                    generator.writeObjectFieldStart("source_node");
+                    generator.writeStringField("uuid", nodeIds[node]);
+                    generator.writeStringField("host", nodeIps[node]);
+                    generator.writeStringField("transport_address", nodeIps[node] + ":9300");
+                    generator.writeStringField("name", nodeNames[node]);
+                    generator.writeEndObject();
+                    generator.writeFieldName("node_stats");
+                    writeNodeStats(generator, node, random);
+                    generator.writeEndObject();
+                }
+            }
+            generator.writeRaw('\n');
+        }
+    }
+
+    private void writeNodes(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        writeNodesHeader(generator);
+        generator.writeObjectFieldStart("nodes");
+        for (int node = 0; node < nodes; node++) {
+            generator.writeObjectFieldStart(nodeIds[node]);
+            generator.writeStringField("name", nodeNames[node]);
+            generator.writeStringField("transport_address", nodeIps[node] + ":9300");
+            generator.writeStringField("host", nodeIps[node]);
+            generator.writeStringField("ip", nodeIps[node]);
+            generator.writeStringField("version", version);
+            generator.writeStringField("build_flavor", "default");
+            generator.writeArrayFieldStart("roles");
+            for (String role : roles(node)) {
+                generator.writeString(role);
+            }
+            generator.writeEndArray();
+            generator.writeObjectFieldStart("attributes");
+            generator.writeStringField("availability_zone", "us-east-1" + (char) ('a' + node % 3));
+            generator.writeStringField("xpack.installed", "true");
+            generator.writeEndObject();
+            generator.writeObjectFieldStart("settings");
+            generator.writeObjectFieldStart("cluster");
+            generator.writeStringField("name", clusterName);
+            generator.writeEndObject();
+            generator.writeObjectFieldStart("node");
+            generator.writeStringField("name", nodeNames[node]);
+            generator.writeEndObject();
+            generator.writeObjectFieldStart("network");
+            generator.writeStringField("publish_host", nodeIps[node]);
+            generator.writeEndObject();
+            generator.writeObjectFieldStart("path");
+            generator.writeStringField("data", "/app/data");
+            generator.writeStringField("logs", "/app/logs");
+            generator.writeEndObject();
+            generator.writeEndObject();
+            generator.writeObjectFieldStart("os");
+            generator.writeStringField("name", "Linux");
+            generator.writeStringField("arch", "amd64");
+            generator.writeNumberField("available_processors", 8);
+            generator.writeEndObject();
+            generator.writeObjectFieldStart("jvm");
+            generator.writeStringField("version", "21.0.2");
+            generator.writeNumberField("pid", 1000 + node);
+            generator.writeObjectFieldStart("mem");
+            generator.writeNumberField("heap_max_in_bytes", 31L << 30);
+            generator.writeEndObject();
+            generator.writeEndObject();
+            generator.writeObjectFieldStart("transport");
+            generator.writeArrayFieldStart("bound_address");
+            generator.writeString("[::]:9300");
+            generator.writeEndArray();
+            generator.writeStringField("publish_address", nodeIps[node] + ":9300");
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+    private void writeNodesStats(JsonGenerator generator) throws IOException {
+        Random random = new Random(seed);
+        generator.writeStartObject();
+        writeNodesHeader(generator);
+        generator.writeObjectFieldStart("nodes");
+        for (int node = 0; node < nodes; node++) {
+            generator.writeFieldName(nodeIds[node]);
+            writeNodeStats(generator, node, random);
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+    private void writeNodeStats(JsonGenerator generator, int node, Random random) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("timestamp", 1714558530123L);
+        generator.writeStringField("name", nodeNames[node]);
+        generator.writeStringField("transport_address", nodeIps[node] + ":9300");
+        generator.writeStringField("host", nodeIps[node]);
+        generator.writeStringField("ip", nodeIps[node]);
+        generator.writeObjectFieldStart("indices");
+        generator.writeObjectFieldStart("docs");
+        generator.writeNumberField("count", random.nextInt(Integer.MAX_VALUE));
+        generator.writeEndObject();
+        generator.writeObjectFieldStart("store");
+        generator.writeNumberField("size_in_bytes", random.nextLong() >>> 24);
+        generator.writeEndObject();
+        generator.writeObjectFieldStart("indexing");
+        generator.writeNumberField("index_total", random.nextInt(Integer.MAX_VALUE));
+        generator.writeNumberField("index_time_in_millis", random.nextInt(Integer.MAX_VALUE));
+        generator.writeEndObject();
+        generator.writeObjectFieldStart("search");
+        generator.writeNumberField("query_total", random.nextInt(Integer.MAX_VALUE));
+        generator.writeNumberField("query_time_in_millis", random.nextInt(Integer.MAX_VALUE));
+        generator.writeEndObject();
+        generator.writeEndObject();
+        generator.writeObjectFieldStart("os");
+        generator.writeObjectFieldStart("cpu");
+        generator.writeNumberField("percent", random.nextInt(100));
+        generator.writeEndObject();
+        generator.writeEndObject();
+        generator.writeObjectFieldStart("jvm");
+        generator.writeObjectFieldStart("mem");
+        generator.writeNumberField("heap_used_in_bytes", random.nextLong() >>> 30);
+        generator.writeNumberField("heap_used_percent", random.nextInt(100));
+        generator.writeNumberField("heap_max_in_bytes", 31L << 30);
+        generator.writeEndObject();
+        generator.writeEndObject();
+        generator.writeObjectFieldStart("fs");
+        generator.writeObjectFieldStart("total");
+        generator.writeNumberField("total_in_bytes", 2L << 40);
+        generator.writeNumberField("free_in_bytes", random.nextLong() >>> 23);
+        generator.writeEndObject();
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+    private void writeClusterState(JsonGenerator generator) throws IOException {
+        Random random = new Random(seed);
+        generator.writeStartObject();
+        generator.writeStringField("cluster_name", clusterName);
+        generator.writeStringField("cluster_uuid", clusterUuid);
+        generator.writeNumberField("version", 123456);
+        generator.writeStringField("state_uuid", uuid(random));
+        generator.writeStringField("master_node", nodeIds[0]);
+
+        generator.writeObjectFieldStart("nodes");
+        for (int node = 0; node < nodes; node++) {
+            generator.writeObjectFieldStart(nodeIds[node]);
+            generator.writeStringField("name", nodeNames[node]);
+            generator.writeStringField("ephemeral_id", uuid(random));
+            generator.writeStringField("transport_address", nodeIps[node] + ":9300");
+            generator.writeObjectFieldStart("attributes");
+            generator.writeStringField("availability_zone", "us-east-1" + (char) ('a' + node % 3));
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+
+        generator.writeObjectFieldStart("metadata");
+        generator.writeStringField("cluster_uuid", clusterUuid);
+        generator.writeObjectFieldStart("indices");
+        for (int index = 0; index < indices; index++) {
+            generator.writeObjectFieldStart(indexName(index));
+            generator.writeStringField("state", "open");
+            generator.writeObjectFieldStart("settings");
+            generator.writeObjectFieldStart("index");
+            generator.writeStringField("number_of_shards", Integer.toString(shards));
+            generator.writeStringField("number_of_replicas", Integer.toString(replicas));
+            generator.writeStringField("uuid", uuid(random));
+            generator.writeStringField("creation_date", Long.toString(1714558530123L - index * 3_600_000L));
+            generator.writeStringField("provided_name", indexName(index));
+            generator.writeEndObject();
+            generator.writeEndObject();
+            generator.writeObjectFieldStart("mappings");
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+
+        generator.writeObjectFieldStart("routing_table");
+        generator.writeObjectFieldStart("indices");
+        for (int index = 0; index < indices; index++) {
+            generator.writeObjectFieldStart(indexName(index));
+            generator.writeObjectFieldStart("shards");
+            for (int shard = 0; shard < shards; shard++) {
+                generator.writeArrayFieldStart(Integer.toString(shard));
+                for (int copy = 0; copy <= replicas; copy++) {
+                    generator.writeStartObject();
+                    generator.writeStringField("state", "STARTED");
+                    generator.writeBooleanField("primary", copy == 0);
+                    generator.writeStringField("node", nodeIds[nodeFor(index, shard, copy)]);
+                    generator.writeNullField("relocating_node");
+                    generator.writeNumberField("shard", shard);
+                    generator.writeStringField("index", indexName(index));
+                    generator.writeObjectFieldStart("allocation_id");
+                    generator.writeStringField("id", uuid(random));
+                    generator.writeEndObject();
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+
+        generator.writeEndObject();
+    }
+
+    private void writeNodesHeader(JsonGenerator generator) throws IOException {
+        generator.writeObjectFieldStart("_nodes");
+        generator.writeNumberField("total", nodes);
+        generator.writeNumberField("successful", nodes);
+        generator.writeNumberField("failed", 0);
+        generator.writeEndObject();
+        generator.writeStringField("cluster_name", clusterName);
+    }
+
+    // A few dedicated masters, the rest data nodes
+    private String[] roles(int node) {
+        if (node < Math.min(3, nodes - 1)) {
+            return new String[]{"master"};
+        }
+        return new String[]{"data_content", "data_hot", "ingest", "remote_cluster_client"};
+    }
+
+    private static String uuid(Random random) {
+        String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        char[] id = new char[22];
+        for (int i = 0; i < id.length; i++) {
+            id[i] = chars.charAt(random.nextInt(chars.length()));
+        }
+        return new String(id);
+    }
+
+    private interface Body {
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    private static String render(Body body) {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = factory.createGenerator(writer)) {
+            body.write(generator);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.testutil;
+
+import co.elastic.support.rest.RestClient;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.any;
+import static com.github.tomakehurst.wiremock.client.WireMock.anyUrl;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+
+/**
+ * Serves a {@link SyntheticCluster} over HTTP on a local port, with a delay picked
+ * at random between the given bounds for every response, so collection can be
+ * load tested against a large, slow cluster on one machine.
+ * <p>
+ * The Elasticsearch APIs the generator covers are served whatever their query
+ * string; every other URL gets an empty JSON object, so a full diagnostic run
+ * goes through. Kibana's paged APIs are added one at a time.
+ */
+public class SyntheticClusterServer implements AutoCloseable {
+
+    private final SyntheticCluster cluster;
+    private final WireMockServer server;
+    private final int minLatencyMillis;
+    private final int maxLatencyMillis;
+
+    public SyntheticClusterServer(SyntheticCluster cluster) {
+        this(cluster, 0, 0);
+    }
+
+    public SyntheticClusterServer(SyntheticCluster cluster, int minLatencyMillis, int maxLatencyMillis) {
+        this.cluster = cluster;
+        this.minLatencyMillis = minLatencyMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+        // Delays are served without holding a thread, and nothing is kept per request
+        server = new WireMockServer(wireMockConfig()
+                .dynamicPort()
+                .asynchronousResponseEnabled(true)
+                .disableRequestJournal());
+        server.start();
+
+        server.stubFor(any(anyUrl()).atPriority(10).willReturn(response("{}")));
+        server.stubFor(get(urlPathEqualTo("/")).willReturn(response(cluster.root())));
+        server.stubFor(get(urlPathEqualTo("/_nodes")).willReturn(response(cluster.nodesJson())));
+        server.stubFor(get(urlPathEqualTo("/_nodes/stats")).willReturn(response(cluster.nodesStatsJson())));
+        server.stubFor(get(urlPathEqualTo("/_cluster/state")).willReturn(response(cluster.clusterStateJson())));
+        server.stubFor(get(urlPathEqualTo("/_cat/shards")).willReturn(response(cluster.catShards(), "text/plain; charset=UTF-8")));
+    }
+
+    public int port() {
+        return server.port();
+    }
+
+    public SyntheticCluster cluster() {
+        return cluster;
+    }
+
+    /**
+     * Answers /api/stats with the given Kibana version.
+     */
+    public SyntheticClusterServer withKibana(String version) {
+        server.stubFor(get(urlPathEqualTo("/api/stats"))
+                .willReturn(response("{\"kibana\":{\"name\":\"kibana\",\"version\":\"" + version + "\"}}")));
+        return this;
+    }
+
+    /**
+     * Serves a paged Kibana API holding total items, for the page size the diagnostic
+     * asks for, along with the single item request it first makes for the total.
+     */
+    public SyntheticClusterServer withKibanaPagedApi(String url, String perPageField, int total, int perPage) {
+        server.stubFor(get(urlPathEqualTo(url))
+                .withQueryParam("page", equalTo("1"))
+                .withQueryParam(perPageField, equalTo("1"))
+                .willReturn(response(cluster.kibanaPage(perPageField, total, 1, 1))));
+        int pages = Math.max(1, (total + perPage - 1) / perPage);
+        for (int page = 1; page <= pages; page++) {
+            server.stubFor(get(urlPathEqualTo(url))
+                    .withQueryParam("page", equalTo(Integer.toString(page)))
+                    .withQueryParam(perPageField, equalTo(Integer.toString(perPage)))
+                    .willReturn(response(cluster.kibanaPage(perPageField, total, page, perPage))));
+        }
+        return this;
+    }
+
+    public RestClient client() {
+        return RestClient.getClient(
+                "localhost", port(), "http", null, null, null, 0, null, null, null, null, false, null, 5000, 5000, 30000);
+    }
+
+    @Override
+    public void close() {
+        server.stop();
+    }
+
+    private ResponseDefinitionBuilder response(String body) {
+        return response(body, "application/json");
+    }
+
+    private ResponseDefinitionBuilder response(String body, String contentType) {
+        ResponseDefinitionBuilder response = aResponse()
+                .withStatus(200)
+                .withHeader("Content-Type", contentType)
+                .withBody(body);
+        if (maxLatencyMillis > minLatencyMillis) {
+            response.withUniformRandomDelay(minLatencyMillis, maxLatencyMillis);
+        } else if (minLatencyMillis > 0) {
+            response.withFixedDelay(minLatencyMillis);
+        }
+        return response;
+    }
+}
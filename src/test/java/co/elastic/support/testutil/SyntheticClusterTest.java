@@ -0,0 +1,97 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.testutil;
+
+import co.elastic.support.rest.RestClient;
+import co.elastic.support.rest.RestResult;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyntheticClusterTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void responses_describeTheSameCluster() throws Exception {
+        SyntheticCluster cluster = new SyntheticCluster(300, 40, 3, 1, 7);
+
+        JsonNode nodes = mapper.readTree(cluster.nodesJson());
+        JsonNode stats = mapper.readTree(cluster.nodesStatsJson());
+        JsonNode state = mapper.readTree(cluster.clusterStateJson());
+        assertEquals(300, nodes.path("nodes").size());
+        assertEquals(300, stats.path("nodes").size());
+        assertEquals(300, state.path("nodes").size());
+        assertEquals(40, state.path("metadata").path("indices").size());
+
+        Set<String> nodeIds = new HashSet<>();
+        nodes.path("nodes").fieldNames().forEachRemaining(nodeIds::add);
+        Set<String> ips = new HashSet<>();
+        nodes.path("nodes").forEach(node -> ips.add(node.path("ip").asText()));
+        assertEquals(300, ips.size());
+
+        int copies = 0;
+        for (JsonNode index : state.path("routing_table").path("indices")) {
+            for (Iterator<JsonNode> shards = index.path("shards").elements(); shards.hasNext(); ) {
+                for (JsonNode copy : shards.next()) {
+                    assertTrue(nodeIds.contains(copy.path("node").asText()));
+                    copies++;
+                }
+            }
+        }
+        assertEquals(cluster.shardCopies(), copies);
+        // a header line and one line per shard copy
+        assertEquals(cluster.shardCopies() + 1, cluster.catShards().split("\n").length);
+    }
+
+    @Test
+    void sameSeed_givesSameBytes(@TempDir Path tempDir) throws Exception {
+        new SyntheticCluster(50, 10, 2, 1, 3).writeBundle(tempDir.resolve("a"));
+        new SyntheticCluster(50, 10, 2, 1, 3).writeBundle(tempDir.resolve("b"));
+
+        for (String file : new String[]{"nodes.json", "nodes_stats.json", "cluster_state.json", "cat/cat_shards.txt"}) {
+            assertEquals(-1L, Files.mismatch(tempDir.resolve("a").resolve(file), tempDir.resolve("b").resolve(file)), file);
+        }
+        assertNotEquals(new SyntheticCluster(50, 10, 2, 1, 3).nodesJson(), new SyntheticCluster(50, 10, 2, 1, 4).nodesJson());
+    }
+
+    @Test
+    void server_servesClusterAndKibanaPagesWithLatency() throws Exception {
+        SyntheticCluster cluster = new SyntheticCluster(20, 5);
+        try (SyntheticClusterServer server = new SyntheticClusterServer(cluster, 100, 150)
+                .withKibana("8.13.4")
+                .withKibanaPagedApi("/api/fleet/agents", "perPage", 250, 100);
+             RestClient client = server.client()) {
+
+            long start = System.nanoTime();
+            RestResult shards = client.execQuery("/_cat/shards?v&s=index");
+            assertTrue((System.nanoTime() - start) / 1_000_000 >= 100);
+            assertEquals(cluster.catShards(), shards.toString());
+
+            assertEquals(cluster.clusterName,
+                    mapper.readTree(client.execQuery("/").toString()).path("cluster_name").asText());
+            assertEquals("{}", client.execQuery("/_cluster/settings?include_defaults").toString());
+
+            JsonNode probe = mapper.readTree(client.execQuery("/api/fleet/agents?page=1&perPage=1").toString());
+            assertEquals(250, probe.path("total").asInt());
+            JsonNode last = mapper.readTree(client.execQuery("/api/fleet/agents?page=3&perPage=100").toString());
+            assertEquals(50, last.path("data").size());
+            assertEquals("item-200", last.path("data").get(0).path("name").asText());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ *  or more contributor license agreements. Licensed under the Elastic License
+ *  2.0; you may not use this file except in compliance with the Elastic License
+ *  2.0.
+ */
+package co.elastic.support.util;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+class ArchiveUtilsTest {
+
+    @Test
+    void createZipArchive_keepsDirectoryLayout(@TempDir Path tempDir) throws Exception {
+        Path diagDir = Files.createDirectory(tempDir.resolve("api-diagnostics"));
+        Files.createDirectory(diagDir.resolve("cat"));
+        Files.writeString(diagDir.resolve("nodes.json"), "{\"nodes\":{}}");
+        Files.writeString(diagDir.resolve("cat").resolve("cat_health.txt"), "green");
+        for (int i = 0; i < 20; i++) {
+            Files.writeString(diagDir.resolve("file_" + i + ".txt"), "content " + i);
+        }
+
+        File archive = ArchiveUtils.createZipArchive(diagDir.toString(), "test");
+
+        assertEquals(tempDir.resolve("api-diagnostics-test.zip").toFile(), archive);
+        try (ZipFile zip = ZipFile.builder().setFile(archive).get()) {
+            List<String> names = new ArrayList<>();
+            Collections.list(zip.getEntries()).forEach(e -> names.add(e.getName()));
+            assertEquals(22, names.size());
+
+            ZipArchiveEntry health = zip.getEntry("api-diagnostics-test/cat/cat_health.txt");
+            assertEquals("green", new String(zip.getInputStream(health).readAllBytes(), StandardCharsets.UTF_8));
+            ZipArchiveEntry last = zip.getEntry("api-diagnostics-test/file_19.txt");
+            assertEquals("content 19", new String(zip.getInputStream(last).readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void createZipArchive_storesGzippedFiles(@TempDir Path tempDir) throws Exception {
+        Path diagDir = Files.createDirectory(tempDir.resolve("api-diagnostics"));
+        Files.write(diagDir.resolve("cluster_state.json.gz"), new byte[]{31, -117, 8, 0});
+        Files.writeString(diagDir.resolve("nodes.json"), "{}");
+
+        File archive = ArchiveUtils.createZipArchive(diagDir.toString(), "test");
+
+        try (ZipFile zip = ZipFile.builder().setFile(archive).get()) {
+            assertEquals(ZipArchiveEntry.STORED, zip.getEntry("api-diagnostics-test/cluster_state.json.gz").getMethod());
+            assertEquals(ZipArchiveEntry.DEFLATED, zip.getEntry("api-diagnostics-test/nodes.json").getMethod());
+        }
+    }
+
+    @Test
+    void createZipArchive_leavesOutFilesThatCannotBeRead(@TempDir Path tempDir) throws Exception {
+        Path diagDir = Files.createDirectory(tempDir.resolve("api-diagnostics"));
+        Files.writeString(diagDir.resolve("nodes.json"), "{}");
+        File locked = Files.writeString(diagDir.resolve("cluster_state.json"), "{}").toFile();
+        locked.setReadable(false);
+        // root reads it anyway
+        assumeFalse(locked.canRead());
+
+        File archive = ArchiveUtils.createZipArchive(diagDir.toString(), "test");
+
+        try (ZipFile zip = ZipFile.builder().setFile(archive).get()) {
+            assertNotNull(zip.getEntry("api-diagnostics-test/nodes.json"));
+            assertNull(zip.getEntry("api-diagnostics-test/cluster_state.json"));
+        } finally {
+            locked.setReadable(true);
+        }
+    }
+}